@@ -1,30 +1,92 @@
 package gitlet;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.io.File;
-import static gitlet.Repository.OBJECT_DIR;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import static gitlet.GitUtils.*;
+import static gitlet.ObjectCodec.*;
 import static gitlet.Utils.*;
 
 /**
  * General Class implement a Blob
+ *
+ * <p>A blob is identified by the hash of its content alone, so the same
+ * content at two paths, or a renamed file, is stored only once. The path a
+ * blob is tracked under belongs to the commit or stage referring to it;
+ * {@link #getBlobPath()} is only known for a blob just read from the
+ * working directory.</p>
+ *
+ * <p>A blob read from the working directory does not hold the content of
+ * the file: its id is hashed from a stream, and {@link #save()} copies the
+ * file into the database a buffer at a time, so files larger than the heap
+ * can be added. The content is only loaded when {@link #getBytes()} is
+ * called.</p>
+ *
  * @author QIU JINHANG
  */
 public class Blob implements Serializable {
+    /** Matches blobs Java-serialized by older versions, see {@link ObjectCodec}. */
+    private static final long serialVersionUID = -1510939810846176381L;
+
     private byte[] bytes;
     private String id;
+    /** Path the blob was read from, or null for a blob read from the database. */
     private String blobPath;
-    private File src;
-    private File blobSaveFileName;
+    /** File the blob was read from, or null for a blob read from the database. */
+    private transient File source;
+
+    /** Size of the buffer used to hash and copy files. */
+    static final int BUFFER_SIZE = 64 * 1024;
 
     public Blob(File src) {
-        this.src = src;
-        this.bytes = readContents(src);
+        this.source = src;
         this.blobPath = src.getPath();
-        this.id = generateBlobId();
-        this.blobSaveFileName = join(OBJECT_DIR, id);
+        this.id = hashFile(src);
+    }
+
+    /**
+     * Create a blob for the file SRC whose content is already known to hash
+     * to ID, so it is not read again
+     * @param src file in the working directory
+     * @param id blob id of its content
+     */
+    public Blob(File src, String id) {
+        this.source = src;
+        this.blobPath = src.getPath();
+        this.id = id;
+    }
+
+    /**
+     * Create a blob holding BYTES, e.g. one chunk of a larger file
+     * @param bytes content of the blob
+     */
+    public Blob(byte[] bytes) {
+        this.bytes = bytes;
+        this.id = generateBlobId(bytes);
     }
 
+    private Blob(String id, String blobPath, byte[] bytes) {
+        this.id = id;
+        this.blobPath = blobPath;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Get the content of the blob, reading the whole file into memory if the
+     * blob was read from the working directory
+     * @return content
+     */
     public byte[] getBytes() {
+        if (bytes == null) {
+            bytes = readContents(source);
+        }
         return bytes;
     }
 
@@ -33,11 +95,14 @@ public class Blob implements Serializable {
     }
 
     public String getId() {
+        if (id == null) {
+            id = generateBlobId(getBytes());
+        }
         return id;
     }
 
     public String getFileName() {
-        return src.getName();
+        return new File(blobPath).getName();
     }
 
     /**
@@ -45,11 +110,121 @@ public class Blob implements Serializable {
      * It ensures that any changes made to the blob are persisted and can be retrieved later.
      */
     public void save() {
-        writeObject(blobSaveFileName, this);
+        if (source != null) {
+            id = ObjectStore.saveBlob(source);
+        } else {
+            ObjectStore.save(getId(), this);
+        }
+    }
+
+    /**
+     * Saves the blob as a delta against an earlier version of the same file,
+     * so a small edit to a large file only costs the size of the edit.
+     * Blobs too large to hold in memory, or stored as chunks, are always
+     * saved in full. As with {@link #save()}, the id of a blob read from
+     * the working directory is hashed again from the content stored, which
+     * may have changed since the id was taken, e.g. from the stat cache.
+     * @param baseId id of the earlier version, or null to save in full
+     */
+    public void save(String baseId) {
+        if (baseId == null || source != null && !ObjectStore.canDelta(source.length())) {
+            save();
+            return;
+        }
+        if (source != null) {
+            id = generateBlobId(getBytes());
+            if (ObjectStore.contains(id)) {
+                return;
+            }
+        }
+        ObjectStore.save(id, this, baseId);
     }
 
-    private String generateBlobId() {
-        return sha1(blobPath, bytes);
+    /**
+     * Write the content of this blob in the binary object format
+     * @param out stream to write to
+     */
+    void encode(DataOutputStream out) throws IOException {
+        out.writeLong(getBytes().length);
+        out.write(getBytes());
+    }
+
+    /**
+     * Read a blob written by {@link #encode}
+     * @param in stream to read from
+     * @param version format version of the encoded blob
+     * @return the blob
+     */
+    static Blob decode(DataInputStream in, int version) throws IOException {
+        long length = readHeader(in, version);
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("blob too large to load, " + length + " bytes");
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return new Blob(null, null, bytes);
+    }
+
+    /**
+     * Read the fields of an encoded blob which precede its content. Blobs
+     * before format version 4 start with their id, with the path they were
+     * added from in version 1, and an int length.
+     * @param in stream to read from
+     * @param version format version of the encoded blob
+     * @return length of the content that follows
+     */
+    static long readHeader(DataInputStream in, int version) throws IOException {
+        if (version >= 4) {
+            return in.readLong();
+        }
+        readId(in);
+        if (version < 2) {
+            readString(in);
+        }
+        return in.readInt();
+    }
+
+    /**
+     * Hash the content with a type and length header, the same way Git
+     * names its blobs, so a blob id never depends on where the file lives
+     */
+    private static String generateBlobId(byte[] content) {
+        MessageDigest md = newDigest(content.length);
+        md.update(content);
+        return bytesToHex(md.digest());
+    }
+
+    /**
+     * Hash the content of SRC as {@link #generateBlobId} would, reading it
+     * a buffer at a time
+     */
+    private static String hashFile(File src) {
+        MessageDigest md = newDigest(src.length());
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(src.toPath())) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytesToHex(md.digest());
+    }
+
+    /**
+     * Create a digest for a blob of SIZE bytes, already fed with its header
+     * @param size length of the content
+     * @return digest to feed the content to
+     */
+    static MessageDigest newDigest(long size) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(("blob " + size + "\0").getBytes(StandardCharsets.UTF_8));
+            return md;
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
     }
 
 }
@@ -0,0 +1,56 @@
+package gitlet;
+
+import java.io.File;
+
+/**
+ * What is known about a tracked file without reading its content: the id
+ * of its blob and the path it is tracked under, both taken from a commit or
+ * stage, and the size and type of the blob, read from the object header
+ * only when asked for.
+ *
+ * @author QIU JINHANG
+ */
+public class BlobInfo {
+
+    private final String id;
+    private final String path;
+    /** Length of the content, or -1 until it is read. */
+    private long size = -1;
+
+    public BlobInfo(String id, String path) {
+        this.id = id;
+        this.path = path;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getFileName() {
+        return new File(path).getName();
+    }
+
+    /**
+     * Get the length of the content of the blob, from the header of the
+     * stored object
+     * @return size in bytes
+     */
+    public long getSize() {
+        if (size < 0) {
+            size = ObjectStore.contentSize(id);
+        }
+        return size;
+    }
+
+    /**
+     * Get the type of the object, from the header of the stored object
+     * @return {@link ObjectStore#BLOB} for a valid entry
+     */
+    public int getType() {
+        return ObjectStore.typeOf(id);
+    }
+}
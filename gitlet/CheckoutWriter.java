@@ -0,0 +1,193 @@
+package gitlet;
+
+import java.io.Console;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static gitlet.GitUtils.deleteFile;
+import static gitlet.Repository.CWD;
+
+/**
+ * Updates the working directory for checkout, reset and merge: deletes and
+ * writes files on a pool of {@link Config#PARALLELISM} threads.
+ *
+ * <p>Each thread reads a blob from the object database and writes it to its
+ * file, so reading and inflating some objects overlaps with writing others
+ * instead of the disk sitting idle while one file at a time is decoded.
+ * Every file is written by exactly one thread, and the call returns only
+ * once all are done; if any failed, the first failure is thrown.</p>
+ *
+ * <p>When the update takes longer than {@link #PROGRESS_DELAY} and the
+ * command runs on a terminal, the number of files done is shown on
+ * standard error. When its input or output is redirected, e.g. by a
+ * script, nothing is shown.</p>
+ *
+ * @author QIU JINHANG
+ */
+public class CheckoutWriter {
+
+    /** Time before progress is shown, in milliseconds. */
+    private static final long PROGRESS_DELAY = 1000;
+    /** Time between two updates of the progress, in milliseconds. */
+    private static final long PROGRESS_INTERVAL = 100;
+
+    /**
+     * Delete the files DELETIONS and the directories they leave empty, then
+     * write the blob of each file in WRITES. A file can thus replace a
+     * directory of deleted files, and a directory a deleted file.
+     * @param deletions files to delete
+     * @param writes blob id of each file to write, by file
+     */
+    public static void apply(Collection<File> deletions, Map<File, String> writes) {
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (File file : deletions) {
+            tasks.add(() -> deleteFile(file));
+        }
+        run(tasks);
+        deleteEmptyParents(deletions);
+        tasks.clear();
+        for (Map.Entry<File, String> write : writes.entrySet()) {
+            tasks.add(() -> {
+                File file = write.getKey();
+                if (!file.getParentFile().isDirectory()) {
+                    file.getParentFile().mkdirs();
+                }
+                ObjectStore.restoreBlob(write.getValue(), file);
+            });
+        }
+        run(tasks);
+    }
+
+    /**
+     * Delete the parent directories of DELETIONS which are now empty, up to
+     * the working directory
+     */
+    private static void deleteEmptyParents(Collection<File> deletions) {
+        for (File file : deletions) {
+            if (!file.toPath().startsWith(CWD.toPath())) {
+                continue;
+            }
+            File dir = file.getParentFile();
+            while (!dir.equals(CWD) && dir.delete()) {
+                dir = dir.getParentFile();
+            }
+        }
+    }
+
+    /**
+     * Run TASKS on the pool, showing progress, and wait for all of them
+     */
+    private static void run(List<Runnable> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        int threads = Math.min(WorkingTree.parallelism(), tasks.size());
+        if (threads == 1) {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "checkout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Void> done = new ExecutorCompletionService<Void>(pool);
+        for (Runnable task : tasks) {
+            done.submit(task, null);
+        }
+        Progress progress = new Progress(tasks.size());
+        RuntimeException failure = null;
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                try {
+                    done.take().get();
+                } catch (ExecutionException excp) {
+                    if (failure == null) {
+                        failure = toRuntimeException(excp.getCause());
+                    }
+                }
+                progress.update(i + 1);
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            failure = new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+        progress.finish();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Determine whether standard input and output are a terminal. From Java
+     * 22 there is a console even when they are redirected, so it is asked
+     * where it can be.
+     */
+    private static boolean isTerminal() {
+        Console console = System.console();
+        if (console == null) {
+            return false;
+        }
+        try {
+            return (Boolean) Console.class.getMethod("isTerminal").invoke(console);
+        } catch (ReflectiveOperationException excp) {
+            return true;
+        }
+    }
+
+    private static RuntimeException toRuntimeException(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IllegalArgumentException(cause);
+    }
+
+    /** Progress of one batch of tasks, shown on a terminal once it is slow. */
+    private static class Progress {
+        private final int total;
+        private final long start = System.currentTimeMillis();
+        private final boolean enabled = isTerminal();
+        private long lastShown;
+        private boolean shown;
+
+        Progress(int total) {
+            this.total = total;
+        }
+
+        void update(int count) {
+            long now = System.currentTimeMillis();
+            if (enabled && now - start >= PROGRESS_DELAY && now - lastShown >= PROGRESS_INTERVAL) {
+                show(count, "");
+                lastShown = now;
+            }
+        }
+
+        void finish() {
+            if (shown) {
+                show(total, ", done.\n");
+            }
+        }
+
+        private void show(int count, String end) {
+            System.err.print("\rUpdating files: " + (100L * count / total) + "% ("
+                    + count + "/" + total + ")" + end);
+            System.err.flush();
+            shown = true;
+        }
+    }
+}
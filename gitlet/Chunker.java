@@ -0,0 +1,117 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Splits a stream into chunks at content-defined boundaries, following
+ * FastCDC.
+ *
+ * <p>A gear hash is rolled over the bytes, {@code h = (h << 1) + GEAR[b]},
+ * so the high bits of {@code h} depend on the last 64 bytes only. A chunk
+ * ends where those bits match a mask. Because boundaries depend on nearby
+ * content rather than on offsets, inserting or deleting bytes in a file
+ * only changes the chunks around the edit, and every other chunk keeps its
+ * id and is shared with earlier versions.</p>
+ *
+ * <p>Chunks are never shorter than {@link #MIN_SIZE} or longer than
+ * {@link #MAX_SIZE}. Before the average size a stricter mask is used and
+ * after it a looser one, which keeps chunk sizes close to the average.</p>
+ *
+ * @author QIU JINHANG
+ */
+public class Chunker {
+
+    public static final int MIN_SIZE = 16 * 1024;
+    public static final int AVERAGE_SIZE = 64 * 1024;
+    public static final int MAX_SIZE = 256 * 1024;
+
+    /** Mask used before the average size: 18 bits, cuts less often. */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+    /** Mask used after the average size: 14 bits, cuts more often. */
+    private static final long MASK_LARGE = -1L << (64 - 14);
+
+    /** Random value for every byte, fixed so chunks are the same on every run. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[MAX_SIZE];
+    /** Number of bytes in buffer not yet returned as a chunk. */
+    private int length;
+    private boolean eof;
+
+    /**
+     * Create a chunker reading IN
+     * @param in stream to split, read a buffer at a time
+     */
+    public Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Get the next chunk of the stream
+     * @return content of the chunk, or null at the end of the stream
+     */
+    public byte[] next() throws IOException {
+        fill();
+        if (length == 0) {
+            return null;
+        }
+        int cut = cutPoint(buffer, length);
+        byte[] chunk = Arrays.copyOf(buffer, cut);
+        System.arraycopy(buffer, cut, buffer, 0, length - cut);
+        length -= cut;
+        return chunk;
+    }
+
+    /**
+     * Read until the buffer is full or the stream ends
+     */
+    private void fill() throws IOException {
+        while (!eof && length < buffer.length) {
+            int n = in.read(buffer, length, buffer.length - length);
+            if (n < 0) {
+                eof = true;
+            } else {
+                length += n;
+            }
+        }
+    }
+
+    /**
+     * Find the end of the chunk starting at the beginning of BYTES
+     * @param bytes data to split
+     * @param n number of bytes available, at most MAX_SIZE
+     * @return length of the chunk
+     */
+    private static int cutPoint(byte[] bytes, int n) {
+        if (n <= MIN_SIZE) {
+            return n;
+        }
+        int normal = Math.min(n, AVERAGE_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[bytes[i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i++) {
+            hash = (hash << 1) + GEAR[bytes[i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+}
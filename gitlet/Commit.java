@@ -1,21 +1,35 @@
 package gitlet;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 import static gitlet.Repository.CWD;
-import static gitlet.Repository.OBJECT_DIR;
-import static gitlet.Repository.getBlobFromId;
+import static gitlet.ObjectCodec.*;
 import static gitlet.Utils.*;
 
 /** Represents a gitlet commit object.
+ *
+ *  <p>A commit points to the {@link Tree} of the working directory. The
+ *  flat map from absolute path to blob id used by the commands is built
+ *  from that tree the first time it is asked for. Commits written by older
+ *  versions hold only the flat map until migrate stores their trees.</p>
  *
  *  @author QIU JINHANG
  */
 public class Commit implements Serializable {
+    /** Matches commits Java-serialized by older versions, see {@link ObjectCodec}. */
+    private static final long serialVersionUID = -6979334201703465944L;
+    /** Format of commit times, shared since log formats one per commit shown. */
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter
+            .ofPattern("EEE MMM d HH:mm:ss yyyy Z", Locale.US).withZone(ZoneId.systemDefault());
+
     /**
      * List all instance variables of the Commit class here with a useful
      * comment above them describing what that variable represents and how that
@@ -27,27 +41,54 @@ public class Commit implements Serializable {
     private Date currentTime;
     private String timestamp;
     private List<String> parent;
+    /** Absolute path to blob id, or null until it is read from the tree. */
     private Map<String, String> blobRef;
-    private File commitSave;
+    /** Id of the root tree, or null until it is built for an older commit. */
+    private String tree;
 
     public Commit(String message, Map<String, String> blobRef, List<String> parent) {
         this.currentTime = new Date();
         this.message = message;
         this.blobRef = blobRef;
+        this.tree = Tree.write(toRelativePaths(blobRef));
+        this.parent = parent;
+        this.timestamp = generateTimeStamp();
+        this.id = generateId();
+    }
+
+    /**
+     * Create a commit of the tree with the given id
+     * @param message of the commit
+     * @param tree id of the root tree
+     * @param parent list of parent ids
+     */
+    public Commit(String message, String tree, List<String> parent) {
+        this.currentTime = new Date();
+        this.message = message;
+        this.tree = tree;
         this.parent = parent;
         this.timestamp = generateTimeStamp();
         this.id = generateId();
-        this.commitSave = generateSaveFile();
     }
 
     public Commit() {
         this.currentTime = new Date(0);
         this.parent = new ArrayList<String>();
         this.blobRef = new HashMap<String, String>();
+        this.tree = Tree.write(blobRef);
         this.timestamp = generateTimeStamp();
         this.message = "initial commit";
         this.id = generateId();
-        this.commitSave = generateSaveFile();
+    }
+
+    private Commit(String id, Date currentTime, String message,
+                   List<String> parent, Map<String, String> blobRef, String tree) {
+        this.id = id;
+        this.currentTime = currentTime;
+        this.message = message;
+        this.parent = parent;
+        this.blobRef = blobRef;
+        this.tree = tree;
     }
 
     /**
@@ -55,18 +96,29 @@ public class Commit implements Serializable {
      * @return date
      */
     private String generateTimeStamp() {
-        DateFormat df = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.US);
-        return df.format(this.currentTime);
+        return TIMESTAMP_FORMAT.format(currentTime.toInstant());
     }
 
     /**
-     * Get time stamp of current commit, display in string format
+     * Get time stamp of current commit, display in string format. Commits
+     * read from the database format it when first asked.
      * @return timestamp
      */
     public String getTimestamp() {
+        if (timestamp == null) {
+            timestamp = generateTimeStamp();
+        }
         return timestamp;
     }
 
+    /**
+     * Get the time of current commit
+     * @return milliseconds since the epoch
+     */
+    public long getTime() {
+        return currentTime.getTime();
+    }
+
     /**
      * Get message of current commit
      * @return message
@@ -78,28 +130,17 @@ public class Commit implements Serializable {
     /**
      * Each commit is identified by its SHA-1 id, which must include the file (blob)
      * references of its files, parent reference, log message, and commit time.
+     * The files are included through the id of the root tree.
      * @return commit id
      */
     public String generateId() {
-        return Utils.sha1(generateTimeStamp(), message, parent.toString(), blobRef.toString());
+        return Utils.sha1(generateTimeStamp(), message, parent.toString(), tree);
     }
 
     public String getId() {
         return id;
     }
 
-    /**
-     * Generates a File object for saving, based on the file name.
-     *
-     * <p>This method creates a File object by joining the OBJECT_DIR with the
-     * provided file id</p>
-     *
-     * @return a File object representing the save file
-     */
-    private File generateSaveFile() {
-        return join(OBJECT_DIR, id);
-    }
-
     /**
      * Saves the current state of the object by writing it to a file.
      *
@@ -107,7 +148,10 @@ public class Commit implements Serializable {
      * set before calling this method.</p>
      */
     public void save() {
-        writeObject(commitSave, this);
+        ObjectStore.save(id, this);
+        CommitGraph.add(this);
+        ReachabilityBitmaps.add(CommitGraph.positionOf(id));
+        MessageIndex.add(this);
     }
 
     /**
@@ -115,19 +159,104 @@ public class Commit implements Serializable {
      * @return Blob Reference implemented using a hash map
      */
     public Map<String, String> getBlobRef() {
+        if (blobRef == null) {
+            blobRef = new HashMap<String, String>();
+            for (Map.Entry<String, String> file : Tree.flatten(tree).entrySet()) {
+                blobRef.put(join(CWD, file.getKey()).getPath(), file.getValue());
+            }
+        }
         return blobRef;
     }
 
     /**
-     * Get a List of blob of current commit
-     * @return list of blob
+     * Get the id of the root tree of this commit
+     * @return tree id, or null for a commit written before trees existed
+     *         whose trees migrate has not stored yet
+     */
+    public String getTreeId() {
+        return tree;
+    }
+
+    /**
+     * Store the trees of a commit written before trees existed, for migrate
+     * @return whether the commit had no tree
+     */
+    public boolean writeTree() {
+        if (tree != null) {
+            return false;
+        }
+        tree = Tree.write(toRelativePaths(blobRef));
+        return true;
+    }
+
+    /**
+     * Store a new root tree holding the files of this commit with CHANGES
+     * applied. Only the trees on the changed paths are written.
+     * @param changes absolute path to new blob id, or to null to remove the path
+     * @return id of the new root tree
      */
-    public List<Blob> getBlobList() {
-        List<Blob> blobList = new ArrayList<Blob>();
-        for (String ref : blobRef.values()) {
-            blobList.add(getBlobFromId(ref));
+    public String updateTree(Map<String, String> changes) {
+        if (tree == null) {
+            Map<String, String> files = new HashMap<String, String>(blobRef);
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    files.remove(change.getKey());
+                } else {
+                    files.put(change.getKey(), change.getValue());
+                }
+            }
+            return Tree.write(toRelativePaths(files));
+        }
+        return Tree.update(tree, toRelativePaths(changes));
+    }
+
+    /**
+     * Convert the absolute paths used by the commands to the paths relative
+     * to the working directory used by trees
+     */
+    static Map<String, String> toRelativePaths(Map<String, String> files) {
+        Map<String, String> relative = new HashMap<String, String>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            relative.put(toRelativePath(file.getKey()), file.getValue());
         }
-        return blobList;
+        return relative;
+    }
+
+    /**
+     * Convert an absolute path to the path relative to the working
+     * directory used by trees
+     */
+    private static String toRelativePath(String absolutePath) {
+        Path path = CWD.toPath().relativize(new File(absolutePath).toPath());
+        return path.toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Get the metadata of every file of current commit, without reading
+     * any blob
+     * @return list of blob metadata
+     */
+    public List<BlobInfo> getBlobInfoList() {
+        List<BlobInfo> blobInfoList = new ArrayList<BlobInfo>();
+        for (Map.Entry<String, String> ref : getBlobRef().entrySet()) {
+            blobInfoList.add(new BlobInfo(ref.getValue(), ref.getKey()));
+        }
+        return blobInfoList;
+    }
+
+    /**
+     * Get the metadata of a single file of current commit. Unless the full
+     * list of files has been loaded already, only the trees on the path of
+     * the file are read.
+     * @param fileName name of the file in CWD
+     * @return blob metadata, or null if the file is not tracked
+     */
+    public BlobInfo getBlobInfo(String fileName) {
+        String filePath = join(CWD, fileName).getPath();
+        String blobId = blobRef != null
+                ? blobRef.get(filePath)
+                : Tree.lookup(tree, toRelativePath(filePath));
+        return blobId == null ? null : new BlobInfo(blobId, filePath);
     }
 
     /**
@@ -135,7 +264,7 @@ public class Commit implements Serializable {
      * @return blob id list
      */
     public List<String> getBlobIdList() {
-        List<String> blobIdList = new ArrayList<String>(blobRef.values());
+        List<String> blobIdList = new ArrayList<String>(getBlobRef().values());
         return blobIdList;
     }
 
@@ -145,41 +274,19 @@ public class Commit implements Serializable {
      */
     public List<String> getFileNameList() {
         List<String> fileNameList = new ArrayList<String>();
-        List<Blob> blobList = getBlobList();
-        for (Blob blob : blobList) {
-            fileNameList.add(blob.getFileName());
+        for (String path : getBlobRef().keySet()) {
+            fileNameList.add(new File(path).getName());
         }
         return fileNameList;
     }
 
-    /**
-     * Get target blob by file name
-     * @param fileName of target blob
-     * @return target blob
-     */
-    public Blob getBlobFromFileName(String fileName) {
-        File file = join(CWD, fileName);
-        String filePath = file.getPath();
-        String blobId = blobRef.get(filePath);
-        if (blobId == null) {
-            System.out.println("Error: No blob ID found for path " + filePath);
-            System.out.println("Available paths in blobRef:");
-            for (String key : blobRef.keySet()) {
-                System.out.println("Key: " + key + ", Blob ID: " + blobRef.get(key));
-            }
-            return null;
-        }
-        return getBlobFromId(blobId);
-    }
-
-
     /**
      * Find whether the commit contains file with target file path
      * @param filePath of target file
      * @return boolean value
      */
     public boolean contains(String filePath) {
-        return this.blobRef.containsKey(filePath);
+        return getBlobRef().containsKey(filePath);
     }
 
     /**
@@ -191,4 +298,51 @@ public class Commit implements Serializable {
         return this.parent;
     }
 
+    /**
+     * Write the essential fields of this commit in the binary object format.
+     * The formatted timestamp is not written since it is derived from the
+     * commit time, and the files are written only as the root tree id, so
+     * a commit written before trees existed must first be given its trees
+     * by {@link #writeTree}.
+     * @param out stream to write to
+     */
+    void encode(DataOutputStream out) throws IOException {
+        writeId(out, id);
+        out.writeLong(currentTime.getTime());
+        writeString(out, message);
+        out.writeByte(parent.size());
+        for (String parentId : parent) {
+            writeId(out, parentId);
+        }
+        writeId(out, tree);
+    }
+
+    /**
+     * Read a commit written by {@link #encode}. Commits of format versions
+     * before 3 hold the full map from path to blob id instead of a tree.
+     * @param in stream to read from
+     * @param version format version of the encoded commit
+     * @return the commit
+     */
+    static Commit decode(DataInputStream in, int version) throws IOException {
+        String id = readId(in);
+        Date currentTime = new Date(in.readLong());
+        String message = readString(in);
+        int parentCount = in.readUnsignedByte();
+        List<String> parent = new ArrayList<String>(parentCount);
+        for (int i = 0; i < parentCount; i++) {
+            parent.add(readId(in));
+        }
+        if (version >= 3) {
+            return new Commit(id, currentTime, message, parent, null, readId(in));
+        }
+        int size = in.readInt();
+        Map<String, String> blobRef = new HashMap<String, String>();
+        for (int i = 0; i < size; i++) {
+            String path = readString(in);
+            blobRef.put(path, readId(in));
+        }
+        return new Commit(id, currentTime, message, parent, blobRef, null);
+    }
+
 }
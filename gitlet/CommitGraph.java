@@ -0,0 +1,371 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static gitlet.GitUtils.*;
+import static gitlet.Repository.COMMIT_GRAPH_FILE;
+import static gitlet.Utils.UID_LENGTH;
+
+/**
+ * The commit graph: the id, parents, time and generation number of every
+ * commit, so history can be walked without reading commit objects.
+ *
+ * <p>The file starts with a magic number and a version, followed by one
+ * fixed-width record per commit: the raw 20-byte id, the positions of the
+ * first and second parent ({@link #NONE} if absent), the commit time in
+ * milliseconds and the generation number. A commit is always recorded after
+ * its parents, so parent positions point backwards and new commits are
+ * simply appended.</p>
+ *
+ * <p>The generation number of a root commit is 1, and of any other commit
+ * one more than the largest generation of its parents. A commit can only be
+ * an ancestor of commits with a larger generation, which lets walks stop
+ * early.</p>
+ *
+ * <p>The file is loaded into arrays on first use. Commits saved by a
+ * version without a commit graph are added, with their ancestors, the
+ * first time they are looked up. A damaged file is repaired from the
+ * commits in the object store, see {@link #load}.</p>
+ *
+ * @author QIU JINHANG
+ */
+public class CommitGraph {
+
+    /** Position of a missing parent. */
+    public static final int NONE = -1;
+
+    private static final int MAGIC = 0x43475048;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    /** Raw id, two parent positions, time and generation. */
+    private static final int RECORD_LENGTH = UID_LENGTH / 2 + 4 + 4 + 8 + 4;
+
+    /** Marks used by {@link #mergeBases}. */
+    private static final byte FROM_ONE = 1;
+    private static final byte FROM_TWO = 2;
+    private static final byte STALE = 4;
+    private static final byte RESULT = 8;
+
+    /** Position of every commit, by full id, or null until loaded. */
+    private static Map<String, Integer> positions;
+    private static List<String> ids;
+    private static int[] firstParents;
+    private static int[] secondParents;
+    private static long[] times;
+    private static int[] generations;
+
+    /**
+     * Record a newly saved commit, whose parents are recorded already
+     * @param commit commit to add
+     */
+    public static void add(Commit commit) {
+        load();
+        if (positions.containsKey(commit.getId())) {
+            return;
+        }
+        ByteArrayOutputStream record = new ByteArrayOutputStream(RECORD_LENGTH);
+        append(commit, new DataOutputStream(record));
+        Transaction.append(COMMIT_GRAPH_FILE, record.toByteArray());
+    }
+
+    /**
+     * Get the position of a commit, adding it and its ancestors if they are
+     * not recorded yet
+     * @param id full id of the commit
+     * @return position
+     */
+    public static int positionOf(String id) {
+        load();
+        Integer pos = positions.get(id);
+        if (pos == null) {
+            addWithAncestors(id);
+            pos = positions.get(id);
+        }
+        return pos;
+    }
+
+    /**
+     * Get the number of recorded commits
+     * @return number of commits
+     */
+    public static int size() {
+        load();
+        return ids.size();
+    }
+
+    public static String idAt(int pos) {
+        return ids.get(pos);
+    }
+
+    /**
+     * Get the position of the first parent of a commit
+     * @param pos position of the commit
+     * @return position of the parent, or NONE for a root commit
+     */
+    public static int firstParent(int pos) {
+        return firstParents[pos];
+    }
+
+    /**
+     * Get the position of the second parent of a commit
+     * @param pos position of the commit
+     * @return position of the parent, or NONE unless it is a merge commit
+     */
+    public static int secondParent(int pos) {
+        return secondParents[pos];
+    }
+
+    public static long timeAt(int pos) {
+        return times[pos];
+    }
+
+    public static int generationAt(int pos) {
+        return generations[pos];
+    }
+
+    /**
+     * Find the best common ancestors of two commits: common ancestors which
+     * are not ancestors of another common ancestor. There are several only
+     * in criss-cross histories.
+     *
+     * <p>Commits are visited highest generation first, painted with the
+     * side(s) they are reachable from. A commit reached from both sides is a
+     * candidate, and everything below it is marked stale since it cannot be
+     * a better one. The walk stops once only stale commits are left, so it
+     * visits each commit at most once per side and never recurses.</p>
+     *
+     * @param one position of the first commit
+     * @param two position of the second commit
+     * @return positions of the merge bases, highest generation first
+     */
+    public static List<Integer> mergeBases(int one, int two) {
+        if (one == two) {
+            return new ArrayList<Integer>(List.of(one));
+        }
+        byte[] flags = new byte[size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(
+                (a, b) -> Integer.compare(generations[b], generations[a]));
+        /* Times each commit is in the queue, and entries not stale, so the
+           loop test is O(1) instead of a scan of the queue. */
+        int[] queued = new int[flags.length];
+        int active = 2;
+        flags[one] |= FROM_ONE;
+        flags[two] |= FROM_TWO;
+        queue.add(one);
+        queue.add(two);
+        queued[one]++;
+        queued[two]++;
+        List<Integer> candidates = new ArrayList<Integer>();
+        while (active > 0) {
+            int pos = queue.poll();
+            queued[pos]--;
+            if ((flags[pos] & STALE) == 0) {
+                active--;
+            }
+            byte painted = (byte) (flags[pos] & (FROM_ONE | FROM_TWO | STALE));
+            if (painted == (FROM_ONE | FROM_TWO)) {
+                if ((flags[pos] & RESULT) == 0) {
+                    flags[pos] |= RESULT;
+                    candidates.add(pos);
+                }
+                painted |= STALE;
+            }
+            for (int parent : new int[] {firstParents[pos], secondParents[pos]}) {
+                if (parent != NONE && (flags[parent] & painted) != painted) {
+                    if ((painted & STALE) != 0 && (flags[parent] & STALE) == 0) {
+                        active -= queued[parent];
+                    }
+                    flags[parent] |= painted;
+                    queue.add(parent);
+                    queued[parent]++;
+                    if ((flags[parent] & STALE) == 0) {
+                        active++;
+                    }
+                }
+            }
+        }
+        List<Integer> bases = new ArrayList<Integer>();
+        for (int candidate : candidates) {
+            boolean redundant = false;
+            for (int other : candidates) {
+                if (other != candidate && isAncestor(candidate, other)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                bases.add(candidate);
+            }
+        }
+        bases.sort((a, b) -> Integer.compare(generations[b], generations[a]));
+        return bases;
+    }
+
+    /**
+     * Determine whether commit ANCESTOR can be reached from commit
+     * DESCENDANT by following parents. Commits with a generation below that
+     * of ANCESTOR are not followed, since it cannot be behind them.
+     * @param ancestor position of the possible ancestor
+     * @param descendant position of the possible descendant
+     * @return true if ANCESTOR is DESCENDANT or one of its ancestors
+     */
+    public static boolean isAncestor(int ancestor, int descendant) {
+        int minGeneration = generations[ancestor];
+        boolean[] seen = new boolean[size()];
+        Deque<Integer> stack = new ArrayDeque<Integer>();
+        stack.push(descendant);
+        seen[descendant] = true;
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            if (pos == ancestor) {
+                return true;
+            }
+            for (int parent : new int[] {firstParents[pos], secondParents[pos]}) {
+                if (parent != NONE && !seen[parent] && generations[parent] >= minGeneration) {
+                    seen[parent] = true;
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add the commit ID and every unrecorded ancestor, parents first, with a
+     * single append to the file
+     */
+    private static void addWithAncestors(String id) {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        Deque<Commit> stack = new ArrayDeque<Commit>();
+        stack.push(ObjectStore.read(id, Commit.class));
+        while (!stack.isEmpty()) {
+            Commit commit = stack.peek();
+            if (positions.containsKey(commit.getId())) {
+                stack.pop();
+                continue;
+            }
+            boolean parentsRecorded = true;
+            for (String parentId : commit.getParentId()) {
+                if (!positions.containsKey(parentId)) {
+                    stack.push(ObjectStore.read(parentId, Commit.class));
+                    parentsRecorded = false;
+                }
+            }
+            if (parentsRecorded) {
+                stack.pop();
+                append(commit, out);
+            }
+        }
+        Transaction.append(COMMIT_GRAPH_FILE, records.toByteArray());
+    }
+
+    /**
+     * Add COMMIT to the arrays and write its record to OUT
+     */
+    private static void append(Commit commit, DataOutputStream out) {
+        List<String> parents = commit.getParentId();
+        int first = parents.isEmpty() ? NONE : positions.get(parents.get(0));
+        int second = parents.size() < 2 ? NONE : positions.get(parents.get(1));
+        int generation = 1 + Math.max(first == NONE ? 0 : generations[first],
+                second == NONE ? 0 : generations[second]);
+        try {
+            out.write(hexToBytes(commit.getId()));
+            out.writeInt(first);
+            out.writeInt(second);
+            out.writeLong(commit.getTime());
+            out.writeInt(generation);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        record(commit.getId(), first, second, commit.getTime(), generation);
+    }
+
+    /**
+     * Add a commit to the arrays
+     */
+    private static void record(String id, int first, int second, long time, int generation) {
+        int pos = ids.size();
+        if (pos == firstParents.length) {
+            int capacity = Math.max(16, pos * 2);
+            firstParents = Arrays.copyOf(firstParents, capacity);
+            secondParents = Arrays.copyOf(secondParents, capacity);
+            times = Arrays.copyOf(times, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+        }
+        ids.add(id);
+        positions.put(id, pos);
+        firstParents[pos] = first;
+        secondParents[pos] = second;
+        times[pos] = time;
+        generations[pos] = generation;
+    }
+
+    /**
+     * Read the file unless it has been read already. A missing file, or one
+     * whose header is cut off or unknown, is written again from the commits
+     * in the object store. A record cut off by a crash is dropped, and the
+     * commits of that append are added back.
+     */
+    private static void load() {
+        if (positions != null) {
+            return;
+        }
+        positions = new HashMap<String, Integer>();
+        ids = new ArrayList<String>();
+        firstParents = new int[0];
+        secondParents = new int[0];
+        times = new long[0];
+        generations = new int[0];
+        ByteBuffer data = COMMIT_GRAPH_FILE.exists()
+                ? ByteBuffer.wrap(Utils.readContents(COMMIT_GRAPH_FILE))
+                : null;
+        if (data == null || data.remaining() < HEADER_LENGTH || data.getInt() != MAGIC
+                || data.getInt() != VERSION) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).putInt(VERSION);
+            Transaction.writeContents(COMMIT_GRAPH_FILE, (Object) header.array());
+            /* Commits made before the graph existed, so global-log lists them all. */
+            addAllCommits();
+            return;
+        }
+        int count = data.remaining() / RECORD_LENGTH;
+        byte[] raw = new byte[UID_LENGTH / 2];
+        for (int i = 0; i < count; i++) {
+            data.get(raw);
+            record(bytesToHex(raw), data.getInt(), data.getInt(), data.getLong(), data.getInt());
+        }
+        if (data.hasRemaining()) {
+            try (FileChannel channel = FileChannel.open(COMMIT_GRAPH_FILE.toPath(),
+                    StandardOpenOption.WRITE)) {
+                channel.truncate(HEADER_LENGTH + (long) count * RECORD_LENGTH);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            addAllCommits();
+        }
+    }
+
+    /**
+     * Add every commit of the object store which is not recorded yet
+     */
+    private static void addAllCommits() {
+        for (String id : ObjectStore.allCommitIds()) {
+            if (!positions.containsKey(id)) {
+                addWithAncestors(id);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+
+import static gitlet.Repository.CONFIG_FILE;
+
+/**
+ * Settings of a repository, kept in {@code .gitlet/config} as
+ * {@code key=value} lines and changed with the config command.
+ *
+ * <p>Every setting is optional. Code reading a setting supplies the default
+ * used while it is unset, so a repository without a config file behaves
+ * exactly as before settings existed.</p>
+ *
+ * @author QIU JINHANG
+ */
+public class Config {
+
+    /** Whether large files are stored as lists of chunks, "true" or "false". */
+    public static final String CHUNKING = "chunking";
+    /** Smallest file, in bytes, stored as chunks when chunking is on. */
+    public static final String CHUNKING_MIN_FILE_SIZE = "chunking.minFileSize";
+
+    /**
+     * Whether blobs are compressed: "auto" stores blobs which do not
+     * compress well uncompressed, "always" and "never" do what they say.
+     */
+    public static final String COMPRESSION = "compression";
+
+    /**
+     * How much is synced to disk: "none", "per-command" or "paranoid", see
+     * {@link Transaction}.
+     */
+    public static final String DURABILITY = "durability";
+
+    /** Largest total size, in bytes, of the objects kept in memory by a command. */
+    public static final String CACHE_SIZE = "cache.size";
+    /** Whether commands print object cache hits and misses, "true" or "false". */
+    public static final String CACHE_STATS = "cache.stats";
+
+    /**
+     * Number of threads scanning and hashing working files, by default the
+     * number of processors.
+     */
+    public static final String PARALLELISM = "parallelism";
+
+    /** Settings read from CONFIG_FILE, loaded on first use. */
+    private static Properties properties;
+
+    /**
+     * Get the value of a setting
+     * @param key name of the setting
+     * @param defaultValue value to use if the setting is unset
+     * @return value of the setting
+     */
+    public static String get(String key, String defaultValue) {
+        return load().getProperty(key, defaultValue);
+    }
+
+    /**
+     * Get the value of a boolean setting
+     * @param key name of the setting
+     * @param defaultValue value to use if the setting is unset
+     * @return value of the setting
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(get(key, Boolean.toString(defaultValue)));
+    }
+
+    /**
+     * Get the value of a numeric setting
+     * @param key name of the setting
+     * @param defaultValue value to use if the setting is unset or not a number
+     * @return value of the setting
+     */
+    public static long getLong(String key, long defaultValue) {
+        try {
+            return Long.parseLong(get(key, Long.toString(defaultValue)).trim());
+        } catch (NumberFormatException excp) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Determine whether VALUE may be given to the setting KEY. A setting
+     * with a fixed set of values only takes one of those, so a misspelt
+     * value is refused rather than read as something else.
+     * @param key name of the setting
+     * @param value value to check
+     * @return boolean value
+     */
+    public static boolean isValid(String key, String value) {
+        switch (key) {
+            case DURABILITY:
+                return List.of(Transaction.NONE, Transaction.PER_COMMAND, Transaction.PARANOID)
+                        .contains(value);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Change a setting and write the config file
+     * @param key name of the setting
+     * @param value new value
+     */
+    public static void set(String key, String value) {
+        Properties settings = load();
+        settings.setProperty(key, value);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            settings.store(out, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Transaction.writeContents(CONFIG_FILE, (Object) out.toByteArray());
+    }
+
+    /**
+     * Read CONFIG_FILE unless it has been read already
+     */
+    private static Properties load() {
+        if (properties == null) {
+            properties = new Properties();
+            if (CONFIG_FILE.exists()) {
+                try (InputStream in = Files.newInputStream(CONFIG_FILE.toPath())) {
+                    properties.load(in);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,170 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes one byte array as a list of instructions against another.
+ *
+ * <p>A delta starts with the lengths of the base and of the result, both
+ * as varints, followed by instructions:</p>
+ * <ul>
+ *     <li>{@code COPY offset length}: append {@code length} bytes of the base,
+ *     starting at {@code offset}</li>
+ *     <li>{@code INSERT length bytes...}: append the given literal bytes</li>
+ * </ul>
+ * The encoder indexes the base in fixed-size blocks and looks each block of
+ * the target up in that index, extending every hit as far as the bytes keep
+ * matching. A small edit in a large file therefore becomes two copies and a
+ * short insert.
+ *
+ * @author QIU JINHANG
+ */
+public class Delta {
+
+    private static final int COPY = 0;
+    private static final int INSERT = 1;
+
+    /** Size of the blocks the base is indexed by; shorter matches are ignored. */
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Encode TARGET as a delta against BASE
+     * @param base bytes the delta refers to
+     * @param target bytes the delta reproduces
+     * @return delta instructions
+     */
+    public static byte[] encode(byte[] base, byte[] target) {
+        Map<Integer, Integer> blocks = new HashMap<Integer, Integer>();
+        for (int i = 0; i + BLOCK_SIZE <= base.length; i += BLOCK_SIZE) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        int pos = 0;
+        int literalStart = 0;
+        while (pos + BLOCK_SIZE <= target.length) {
+            Integer candidate = blocks.get(hash(target, pos));
+            int matchLength = candidate == null ? 0 : matchLength(base, candidate, target, pos);
+            if (matchLength < BLOCK_SIZE) {
+                pos++;
+                continue;
+            }
+            /* Extend the match backwards over bytes not yet emitted. */
+            int start = candidate;
+            while (start > 0 && pos > literalStart && base[start - 1] == target[pos - 1]) {
+                start--;
+                pos--;
+                matchLength++;
+            }
+            writeInsert(out, target, literalStart, pos);
+            out.write(COPY);
+            writeVarint(out, start);
+            writeVarint(out, matchLength);
+            pos += matchLength;
+            literalStart = pos;
+        }
+        writeInsert(out, target, literalStart, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuild the target of DELTA from BASE
+     * @param base bytes the delta was encoded against
+     * @param delta instructions from {@link #encode}
+     * @return the reconstructed bytes
+     */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        int baseLength = readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw new IllegalArgumentException("delta does not match its base");
+        }
+        byte[] result = new byte[readVarint(delta, pos)];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int offset = readVarint(delta, pos);
+                int length = readVarint(delta, pos);
+                System.arraycopy(base, offset, result, written, length);
+                written += length;
+            } else if (op == INSERT) {
+                int length = readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, written, length);
+                pos[0] += length;
+                written += length;
+            } else {
+                throw new IllegalArgumentException("corrupt delta");
+            }
+        }
+        if (written != result.length) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return result;
+    }
+
+    /**
+     * Count how many bytes match going forward from BASEPOS and TARGETPOS
+     */
+    private static int matchLength(byte[] base, int basePos, byte[] target, int targetPos) {
+        int length = 0;
+        while (basePos + length < base.length && targetPos + length < target.length
+                && base[basePos + length] == target[targetPos + length]) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Hash the block of BLOCK_SIZE bytes starting at START
+     */
+    private static int hash(byte[] bytes, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK_SIZE; i++) {
+            h = 31 * h + bytes[i];
+        }
+        return h;
+    }
+
+    /**
+     * Write an INSERT instruction for TARGET[FROM, TO), if it is not empty
+     */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        out.write(INSERT);
+        writeVarint(out, to - from);
+        out.write(target, from, to - from);
+    }
+
+    /**
+     * Write VALUE seven bits at a time, low bits first
+     */
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Read a varint from BYTES at POS[0], advancing POS[0] past it
+     */
+    private static int readVarint(byte[] bytes, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = bytes[pos[0]++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
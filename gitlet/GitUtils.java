@@ -1,9 +1,56 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static gitlet.Utils.join;
 
 public class GitUtils {
 
+    /** Numbers the temporary files of replaceFile, which may run on several threads. */
+    private static final AtomicLong TEMP_COUNTER = new AtomicLong();
+
+    /** Writes the content of a file. */
+    public interface ContentWriter {
+        /**
+         * Write the whole content to OUT
+         * @param out channel of the new file
+         */
+        void write(FileChannel out) throws IOException;
+    }
+
+    /**
+     * Replace DEST, or create it, with the content CONTENT writes. The
+     * content goes to a temporary file next to DEST, which is then renamed
+     * over it, so DEST is never seen half written and is left as it was if
+     * writing fails.
+     * @param dest file to write, whose directory must exist
+     * @param content writer of the new content
+     */
+    public static void replaceFile(File dest, ContentWriter content) {
+        File tmp = join(dest.getAbsoluteFile().getParentFile(), "." + dest.getName()
+                + ".tmp-" + ProcessHandle.current().pid() + "-" + TEMP_COUNTER.incrementAndGet());
+        try {
+            try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE_NEW)) {
+                content.write(out);
+            }
+            Files.move(tmp.toPath(), dest.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException excp) {
+            tmp.delete();
+            if (excp instanceof RuntimeException) {
+                throw (RuntimeException) excp;
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /**
      * Create a directory from the File object.
      * @param dir Directory File instance
@@ -15,6 +62,18 @@ public class GitUtils {
         }
     }
 
+    /**
+     * End the command with STATUS, once it printed why, keeping what it
+     * wrote so far. Commands leave early through here rather than call
+     * System.exit: a process which ends without committing, e.g. on Ctrl-C,
+     * is rolled back by the next command, see {@link Transaction}.
+     * @param status exit status
+     */
+    public static void exit(int status) {
+        Transaction.commit();
+        System.exit(status);
+    }
+
     public static boolean deleteFile(File file) {
         if (!file.isDirectory()) {
             if (file.exists()) {
@@ -26,4 +85,31 @@ public class GitUtils {
             return false;
         }
     }
+
+    /**
+     * Convert a hex id to its raw digest bytes
+     * @param id hex string with an even number of digits
+     * @return raw bytes
+     */
+    public static byte[] hexToBytes(String id) {
+        byte[] raw = new byte[id.length() / 2];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return raw;
+    }
+
+    /**
+     * Convert raw digest bytes to a hex id
+     * @param raw digest bytes
+     * @return lower-case hex string
+     */
+    public static String bytesToHex(byte[] raw) {
+        StringBuilder hex = new StringBuilder(raw.length * 2);
+        for (byte b : raw) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
 }
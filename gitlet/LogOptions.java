@@ -0,0 +1,95 @@
+package gitlet;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Options limiting which commits log and global-log print:
+ * {@code --max-count=N} stops after N commits, {@code --skip=N} leaves out
+ * the first N commits which would be printed, and {@code --since=DATE}
+ * leaves out commits made before DATE, given as {@code yyyy-MM-dd} or
+ * {@code yyyy-MM-ddTHH:mm:ss} in the local time zone.
+ *
+ * @author QIU JINHANG
+ */
+public class LogOptions {
+
+    /** Largest number of commits to print, or -1 for no limit. */
+    private long maxCount = -1;
+    private long skip;
+    /** Earliest commit time printed, in milliseconds since the epoch. */
+    private long since = Long.MIN_VALUE;
+
+    private long skipped;
+    private long printed;
+
+    /**
+     * Read the options of a log command. Prints an error and exits if an
+     * option is not understood.
+     * @param args options following the command name
+     * @return options
+     */
+    public static LogOptions parse(String[] args) {
+        LogOptions options = new LogOptions();
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--max-count=")) {
+                    options.maxCount = parseCount(arg.substring("--max-count=".length()));
+                } else if (arg.startsWith("--skip=")) {
+                    options.skip = parseCount(arg.substring("--skip=".length()));
+                } else if (arg.startsWith("--since=")) {
+                    options.since = parseDate(arg.substring("--since=".length()));
+                } else {
+                    throw new IllegalArgumentException(arg);
+                }
+            }
+        } catch (IllegalArgumentException | DateTimeParseException excp) {
+            System.out.println("Incorrect operands.");
+            GitUtils.exit(0);
+        }
+        return options;
+    }
+
+    /**
+     * Decide whether to print the next commit, counting it if so
+     * @param time time of the commit, in milliseconds since the epoch
+     * @return true if the commit is printed
+     */
+    public boolean select(long time) {
+        if (time < since) {
+            return false;
+        }
+        if (skipped < skip) {
+            skipped++;
+            return false;
+        }
+        printed++;
+        return true;
+    }
+
+    /**
+     * Determine whether the maximum number of commits has been printed, so
+     * the walk can stop
+     * @return boolean value
+     */
+    public boolean isDone() {
+        return maxCount >= 0 && printed >= maxCount;
+    }
+
+    private static long parseCount(String value) {
+        long count = Long.parseLong(value);
+        if (count < 0) {
+            throw new IllegalArgumentException(value);
+        }
+        return count;
+    }
+
+    private static long parseDate(String value) {
+        LocalDateTime time = value.contains("T")
+                ? LocalDateTime.parse(value)
+                : LocalDate.parse(value).atStartOfDay();
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
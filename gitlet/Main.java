@@ -1,5 +1,6 @@
 package gitlet;
 
+import java.util.Arrays;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author QIU JINHANG
@@ -17,9 +18,28 @@ public class Main {
          */
         if (args.length == 0) {
             System.out.println("Please enter a command.");
-            System.exit(0);
+            GitUtils.exit(0);
         }
 
+        try {
+            run(args);
+        } catch (RuntimeException | Error excp) {
+            /* Put back whatever the failed command had changed. */
+            Transaction.rollback();
+            throw excp;
+        }
+        Transaction.commit();
+        if (Repository.GITLET_DIR.exists() && Config.getBoolean(Config.CACHE_STATS, false)) {
+            System.err.println(ObjectStore.OBJECT_CACHE);
+            System.err.println(ObjectStore.BASE_CACHE);
+        }
+    }
+
+    /**
+     * Run the command in ARGS. Files in .gitlet it changes are journaled by
+     * {@link Transaction} until main commits them.
+     */
+    private static void run(String[] args) {
         String firstArg = args[0];
         switch (firstArg) {
             /* `init` command */
@@ -27,11 +47,11 @@ public class Main {
                 isVaildCMD(args, 1);
                 Repository.init();
                 break;
-            /* `add [filename]` command */
+            /* `add [filename]...` command */
             case "add":
-                isVaildCMD(args, 2);
+                isVaildCMD(args, 2, Integer.MAX_VALUE);
                 Repository.checkInit();
-                Repository.add(args[1]);
+                Repository.add(Arrays.copyOfRange(args, 1, args.length));
                 break;
             /* `commit [filename]` command */
             case "commit":
@@ -39,29 +59,36 @@ public class Main {
                 Repository.checkInit();
                 Repository.commit(args[1]);
                 break;
-            /* `rm [filename]` command */
+            /* `rm [filename]...` command */
             case "rm":
-                isVaildCMD(args, 2);
+                isVaildCMD(args, 2, Integer.MAX_VALUE);
                 Repository.checkInit();
-                Repository.rm(args[1]);
+                Repository.rm(Arrays.copyOfRange(args, 1, args.length));
                 break;
-            /* `log` command */
+            /* `log [--max-count=N] [--skip=N] [--since=DATE]` command */
             case "log":
-                isVaildCMD(args, 1);
                 Repository.checkInit();
-                Repository.log();
+                Repository.log(Arrays.copyOfRange(args, 1, args.length));
                 break;
             /* `global-log` command */
             case "global-log":
-                isVaildCMD(args, 1);
                 Repository.checkInit();
-                Repository.globalLog();
+                Repository.globalLog(Arrays.copyOfRange(args, 1, args.length));
                 break;
-            /* `find [commit message]` command */
+            /* `find [--token | --substring] [commit message]` command */
             case "find":
-                isVaildCMD(args, 2);
                 Repository.checkInit();
-                Repository.find(args[1]);
+                switch (args.length) {
+                    case 2:
+                        Repository.find(args[1]);
+                        break;
+                    case 3:
+                        Repository.find(args[1], args[2]);
+                        break;
+                    default:
+                        System.out.println("Incorrect operands.");
+                        GitUtils.exit(0);
+                }
                 break;
             /* `status` command */
             case "status":
@@ -79,28 +106,56 @@ public class Main {
                     case 3:
                         if (!args[1].equals("--")) {
                             System.out.println("Incorrect operands.");
-                            System.exit(0);
+                            GitUtils.exit(0);
                         }
                         Repository.checkout(args[2]);
                         break;
                     case 4:
                         if (!args[2].equals("--")) {
                             System.out.println("Incorrect operands.");
-                            System.exit(0);
+                            GitUtils.exit(0);
                         }
                         Repository.checkout(args[1], args[3]);
                         break;
                     default:
                         System.out.println("Incorrect operands.");
-                        System.exit(0);
+                        GitUtils.exit(0);
                 }
                 break;
-            /* `branch [branch name]` command */
+            /* `branch [branch name]` or `branch --contains [commit]` command */
             case "branch":
-                isVaildCMD(args, 2);
                 Repository.checkInit();
+                if (args.length == 3 && args[1].equals("--contains")) {
+                    Repository.branchContains(args[2]);
+                    break;
+                }
+                isVaildCMD(args, 2);
                 Repository.branch(args[1]);
                 break;
+            /* `watch [--stop | --foreground]` command */
+            case "watch":
+                Repository.checkInit();
+                if (args.length == 2 && args[1].equals("--stop")) {
+                    Repository.watch(true);
+                    break;
+                }
+                if (args.length == 2 && args[1].equals("--foreground")) {
+                    Repository.watchInForeground();
+                    break;
+                }
+                isVaildCMD(args, 1);
+                Repository.watch(false);
+                break;
+            /* `merge-base [--is-ancestor] [commit] [commit]` command */
+            case "merge-base":
+                Repository.checkInit();
+                if (args.length == 4 && args[1].equals("--is-ancestor")) {
+                    Repository.mergeBaseIsAncestor(args[2], args[3]);
+                    break;
+                }
+                isVaildCMD(args, 3);
+                Repository.mergeBase(args[1], args[2]);
+                break;
             /* `rm-branch [branch name]` command */
             case "rm-branch":
                 isVaildCMD(args, 2);
@@ -113,6 +168,32 @@ public class Main {
                 Repository.checkInit();
                 Repository.reset(args[1]);
                 break;
+            /* `repack` command */
+            case "repack":
+                isVaildCMD(args, 1);
+                Repository.checkInit();
+                Repository.repack();
+                break;
+            /* `migrate` command */
+            case "migrate":
+                isVaildCMD(args, 1);
+                Repository.migrate();
+                break;
+            /* `config [key] [value]` command */
+            case "config":
+                Repository.checkInit();
+                switch (args.length) {
+                    case 2:
+                        Repository.config(args[1]);
+                        break;
+                    case 3:
+                        Repository.config(args[1], args[2]);
+                        break;
+                    default:
+                        System.out.println("Incorrect operands.");
+                        GitUtils.exit(0);
+                }
+                break;
             /* `merge [branch name]` command */
             case "merge":
                 isVaildCMD(args, 2);
@@ -125,7 +206,20 @@ public class Main {
                  * print the error message and exit.
                  */
                 System.out.println("No command with that name exists.");
-                System.exit(0);
+                GitUtils.exit(0);
+        }
+    }
+
+    private static void isVaildCMD(String[] args, int min, int max) {
+        /**
+         * Determine whether a cmd taking a varying number of operands is valid
+         * @param args Input Command
+         * @param min smallest valid length of this command
+         * @param max largest valid length of this command
+         */
+        if (args.length < min || args.length > max) {
+            System.out.println("Incorrect operands.");
+            GitUtils.exit(0);
         }
     }
 
@@ -139,7 +233,7 @@ public class Main {
          */
         if (args.length != len) {
             System.out.println("Incorrect operands.");
-            System.exit(0);
+            GitUtils.exit(0);
         }
     }
 }
@@ -0,0 +1,135 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The difference between the files of two commits: the paths only in the
+ * new commit, only in the old one, and in both with a different blob.
+ *
+ * <p>The trees of both commits are walked side by side. A directory whose
+ * tree id is the same in both is skipped without being read, and within a
+ * directory the files and subdirectories, kept sorted by name, are matched
+ * with a single merge-join pass. Two near-identical commits therefore cost a
+ * few tree reads, however many files they hold.</p>
+ *
+ * <p>Paths are relative to the working directory and use '/' between
+ * names, as in {@link Tree}.</p>
+ *
+ * @author QIU JINHANG
+ */
+public class ManifestDiff {
+
+    /** Path to blob id in the new commit. */
+    private final Map<String, String> added = new TreeMap<String, String>();
+    /** Path to blob id in the old commit. */
+    private final Map<String, String> removed = new TreeMap<String, String>();
+    /** Path to blob id in the new commit. */
+    private final Map<String, String> modified = new TreeMap<String, String>();
+
+    /**
+     * Compare the files of two commits
+     * @param from commit the working directory is at
+     * @param to commit to move to
+     * @return difference
+     */
+    public static ManifestDiff between(Commit from, Commit to) {
+        ManifestDiff diff = new ManifestDiff();
+        String fromTree = from.getTreeId();
+        String toTree = to.getTreeId();
+        if (fromTree == null || toTree == null) {
+            /* A commit written before trees existed has only its file list. */
+            diff.compareFiles("",
+                    new TreeMap<String, String>(Commit.toRelativePaths(from.getBlobRef())),
+                    new TreeMap<String, String>(Commit.toRelativePaths(to.getBlobRef())));
+        } else if (!fromTree.equals(toTree)) {
+            diff.compare("", Tree.read(fromTree), Tree.read(toTree));
+        }
+        return diff;
+    }
+
+    public Map<String, String> getAdded() {
+        return added;
+    }
+
+    public Map<String, String> getRemoved() {
+        return removed;
+    }
+
+    public Map<String, String> getModified() {
+        return modified;
+    }
+
+    /**
+     * Add the differences between the directories OLD and NEW, whose paths
+     * start with PREFIX
+     */
+    private void compare(String prefix, Tree old, Tree updated) {
+        compareFiles(prefix, old.getBlobs(), updated.getBlobs());
+
+        Iterator<Map.Entry<String, String>> oldTrees = old.getTrees().entrySet().iterator();
+        Iterator<Map.Entry<String, String>> newTrees = updated.getTrees().entrySet().iterator();
+        Map.Entry<String, String> oldTree = next(oldTrees);
+        Map.Entry<String, String> newTree = next(newTrees);
+        while (oldTree != null || newTree != null) {
+            int order = oldTree == null ? 1 : newTree == null ? -1
+                    : oldTree.getKey().compareTo(newTree.getKey());
+            if (order < 0) {
+                addAll(removed, prefix + oldTree.getKey() + "/", oldTree.getValue());
+                oldTree = next(oldTrees);
+            } else if (order > 0) {
+                addAll(added, prefix + newTree.getKey() + "/", newTree.getValue());
+                newTree = next(newTrees);
+            } else {
+                if (!oldTree.getValue().equals(newTree.getValue())) {
+                    compare(prefix + newTree.getKey() + "/",
+                            Tree.read(oldTree.getValue()), Tree.read(newTree.getValue()));
+                }
+                oldTree = next(oldTrees);
+                newTree = next(newTrees);
+            }
+        }
+    }
+
+    /**
+     * Add the differences between the files OLD and NEW, each a sorted map
+     * from name to blob id, whose paths start with PREFIX
+     */
+    private void compareFiles(String prefix, Map<String, String> old, Map<String, String> updated) {
+        Iterator<Map.Entry<String, String>> oldBlobs = old.entrySet().iterator();
+        Iterator<Map.Entry<String, String>> newBlobs = updated.entrySet().iterator();
+        Map.Entry<String, String> oldBlob = next(oldBlobs);
+        Map.Entry<String, String> newBlob = next(newBlobs);
+        while (oldBlob != null || newBlob != null) {
+            int order = oldBlob == null ? 1 : newBlob == null ? -1
+                    : oldBlob.getKey().compareTo(newBlob.getKey());
+            if (order < 0) {
+                removed.put(prefix + oldBlob.getKey(), oldBlob.getValue());
+                oldBlob = next(oldBlobs);
+            } else if (order > 0) {
+                added.put(prefix + newBlob.getKey(), newBlob.getValue());
+                newBlob = next(newBlobs);
+            } else {
+                if (!oldBlob.getValue().equals(newBlob.getValue())) {
+                    modified.put(prefix + newBlob.getKey(), newBlob.getValue());
+                }
+                oldBlob = next(oldBlobs);
+                newBlob = next(newBlobs);
+            }
+        }
+    }
+
+    /**
+     * Add every file below the tree TREEID to FILES, prefixing paths with PREFIX
+     */
+    private static void addAll(Map<String, String> files, String prefix, String treeId) {
+        for (Map.Entry<String, String> file : Tree.flatten(treeId).entrySet()) {
+            files.put(prefix + file.getKey(), file.getValue());
+        }
+    }
+
+    private static Map.Entry<String, String> next(Iterator<Map.Entry<String, String>> entries) {
+        return entries.hasNext() ? entries.next() : null;
+    }
+}
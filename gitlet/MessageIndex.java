@@ -0,0 +1,320 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.GitUtils.*;
+import static gitlet.Repository.MESSAGE_INDEX_FILE;
+import static gitlet.Repository.MESSAGE_LOG_FILE;
+import static gitlet.Utils.UID_LENGTH;
+
+/**
+ * An inverted index of commit messages, used by find instead of reading
+ * every commit.
+ *
+ * <p>Each commit is indexed under three kinds of terms: its whole message,
+ * every word of the message, and every three-character substring of the
+ * message in lower case. A record is the 64-bit hash of a term followed by
+ * the raw id of a commit, so all records have the same width.</p>
+ *
+ * <p>Records live in two files. {@code message-index} is sorted by hash and
+ * searched with a binary search touching O(log n) records. New commits are
+ * appended to {@code message-log}, which is read in full. Once the log
+ * holds more than {@link #MAX_LOG_RECORDS} records it is merged into the
+ * sorted file. Repositories without an index get one built from every
+ * commit the first time it is needed.</p>
+ *
+ * <p>Hashes may collide and the trigrams of a text do not prove it occurs,
+ * so every match is checked against the message of the commit before it is
+ * returned.</p>
+ *
+ * @author QIU JINHANG
+ */
+public class MessageIndex {
+
+    /** Kinds of terms, hashed together with the term. */
+    private static final char MESSAGE = 'm';
+    private static final char TOKEN = 't';
+    private static final char TRIGRAM = 'g';
+
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    /** Hash of a term and the raw id of a commit. */
+    private static final int RECORD_LENGTH = 8 + ID_BYTES;
+    /** Largest number of records kept in the log before merging it. */
+    private static final int MAX_LOG_RECORDS = 4096;
+
+    /** Records of the log, or null until it is read by a lookup. */
+    private static List<Posting> logPostings;
+
+    /**
+     * Index a newly saved commit
+     * @param commit commit to add
+     */
+    public static void add(Commit commit) {
+        if (!MESSAGE_INDEX_FILE.exists()) {
+            rebuild();
+            return;
+        }
+        List<Posting> postings = new ArrayList<Posting>();
+        addPostings(postings, commit.getId(), commit.getMessage());
+        long torn = MESSAGE_LOG_FILE.length() % RECORD_LENGTH;
+        if (torn != 0) {
+            /* Drop a record cut off by a crash, so the new ones line up. */
+            try (RandomAccessFile log = new RandomAccessFile(MESSAGE_LOG_FILE, "rw")) {
+                log.setLength(log.length() - torn);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        Transaction.append(MESSAGE_LOG_FILE, toBytes(postings));
+        logPostings = null;
+        if (MESSAGE_LOG_FILE.length() / RECORD_LENGTH > MAX_LOG_RECORDS) {
+            compact();
+        }
+    }
+
+    /**
+     * Find the commits whose message is exactly MESSAGE
+     * @param message message to look for
+     * @return sorted ids of the commits
+     */
+    public static Set<String> findMessage(String message) {
+        Set<String> found = new TreeSet<String>();
+        for (String id : lookup(key(MESSAGE, message))) {
+            if (message.equals(messageOf(id))) {
+                found.add(id);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Find the commits whose message contains every word of TEXT, in any
+     * order and case
+     * @param text words to look for
+     * @return sorted ids of the commits
+     */
+    public static Set<String> findTokens(String text) {
+        Set<String> tokens = tokens(text);
+        Set<String> found = new TreeSet<String>();
+        if (tokens.isEmpty()) {
+            return found;
+        }
+        List<Set<String>> postings = new ArrayList<Set<String>>();
+        for (String token : tokens) {
+            postings.add(lookup(key(TOKEN, token)));
+        }
+        for (String id : intersect(postings)) {
+            if (tokens(messageOf(id)).containsAll(tokens)) {
+                found.add(id);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Find the commits whose message contains TEXT
+     * @param text substring to look for, matched with case
+     * @return sorted ids of the commits
+     */
+    public static Set<String> findSubstring(String text) {
+        Set<String> trigrams = trigrams(text);
+        Collection<String> candidates;
+        if (trigrams.isEmpty()) {
+            /* Too short to have a trigram: every commit is a candidate. */
+            candidates = ObjectStore.allCommitIds();
+        } else {
+            List<Set<String>> postings = new ArrayList<Set<String>>();
+            for (String trigram : trigrams) {
+                postings.add(lookup(key(TRIGRAM, trigram)));
+            }
+            candidates = intersect(postings);
+        }
+        Set<String> found = new TreeSet<String>();
+        for (String id : candidates) {
+            if (messageOf(id).contains(text)) {
+                found.add(id);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Get the ids of the commits with a record for KEY, from both files
+     */
+    private static Set<String> lookup(long key) {
+        if (!MESSAGE_INDEX_FILE.exists()) {
+            rebuild();
+        }
+        Set<String> ids = new LinkedHashSet<String>();
+        byte[] raw = new byte[ID_BYTES];
+        try (RandomAccessFile index = new RandomAccessFile(MESSAGE_INDEX_FILE, "r")) {
+            long count = index.length() / RECORD_LENGTH;
+            long low = 0;
+            long high = count;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                index.seek(mid * RECORD_LENGTH);
+                if (index.readLong() < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            index.seek(low * RECORD_LENGTH);
+            for (long n = low; n < count && index.readLong() == key; n++) {
+                index.readFully(raw);
+                ids.add(bytesToHex(raw));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (logPostings == null) {
+            logPostings = MESSAGE_LOG_FILE.exists()
+                    ? readPostings(MESSAGE_LOG_FILE)
+                    : new ArrayList<Posting>();
+        }
+        for (Posting posting : logPostings) {
+            if (posting.key == key) {
+                ids.add(posting.id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Get the ids found in every set of POSTINGS, starting from the smallest
+     */
+    private static Set<String> intersect(List<Set<String>> postings) {
+        postings.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        Set<String> result = new LinkedHashSet<String>(postings.get(0));
+        for (Set<String> posting : postings.subList(1, postings.size())) {
+            result.retainAll(posting);
+        }
+        return result;
+    }
+
+    /**
+     * Write a sorted index of every commit and an empty log
+     */
+    private static void rebuild() {
+        List<Posting> postings = new ArrayList<Posting>();
+        for (String id : ObjectStore.allCommitIds()) {
+            addPostings(postings, id, messageOf(id));
+        }
+        writeSorted(postings);
+    }
+
+    /**
+     * Merge the log into the sorted index
+     */
+    private static void compact() {
+        List<Posting> postings = readPostings(MESSAGE_INDEX_FILE);
+        postings.addAll(readPostings(MESSAGE_LOG_FILE));
+        writeSorted(postings);
+    }
+
+    /**
+     * Replace the index with POSTINGS, sorted, and empty the log. Both files
+     * are journaled, so a crash leaves either both old or both new.
+     */
+    private static void writeSorted(List<Posting> postings) {
+        postings.sort((a, b) -> Long.compare(a.key, b.key));
+        Transaction.writeContents(MESSAGE_INDEX_FILE, (Object) toBytes(postings));
+        Transaction.writeContents(MESSAGE_LOG_FILE, (Object) new byte[0]);
+        logPostings = null;
+    }
+
+    /**
+     * Add the records of the commit ID with message MESSAGE to POSTINGS
+     */
+    private static void addPostings(List<Posting> postings, String id, String message) {
+        postings.add(new Posting(key(MESSAGE, message), id));
+        for (String token : tokens(message)) {
+            postings.add(new Posting(key(TOKEN, token), id));
+        }
+        for (String trigram : trigrams(message)) {
+            postings.add(new Posting(key(TRIGRAM, trigram), id));
+        }
+    }
+
+    /**
+     * Get the distinct words of TEXT in lower case
+     */
+    private static Set<String> tokens(String text) {
+        Set<String> tokens = new LinkedHashSet<String>();
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Get the distinct three-character substrings of TEXT in lower case
+     */
+    private static Set<String> trigrams(String text) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        Set<String> trigrams = new LinkedHashSet<String>();
+        for (int i = 0; i + 3 <= lower.length(); i++) {
+            trigrams.add(lower.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    /**
+     * Hash a term of the given kind to 64 bits
+     */
+    private static long key(char kind, String term) {
+        return Long.parseUnsignedLong(Utils.sha1(kind + term).substring(0, 16), 16);
+    }
+
+    private static String messageOf(String id) {
+        return ObjectStore.read(id, Commit.class).getMessage();
+    }
+
+    /**
+     * Read every record of FILE
+     */
+    private static List<Posting> readPostings(File file) {
+        ByteBuffer data = ByteBuffer.wrap(Utils.readContents(file));
+        List<Posting> postings = new ArrayList<Posting>();
+        byte[] raw = new byte[ID_BYTES];
+        /* A record cut off by a crash at the end of the log is ignored. */
+        while (data.remaining() >= RECORD_LENGTH) {
+            long key = data.getLong();
+            data.get(raw);
+            postings.add(new Posting(key, bytesToHex(raw)));
+        }
+        return postings;
+    }
+
+    private static byte[] toBytes(List<Posting> postings) {
+        ByteBuffer data = ByteBuffer.allocate(postings.size() * RECORD_LENGTH);
+        for (Posting posting : postings) {
+            data.putLong(posting.key).put(hexToBytes(posting.id));
+        }
+        return data.array();
+    }
+
+    /** A record: the hash of a term and a commit indexed under it. */
+    private static class Posting {
+        private final long key;
+        private final String id;
+
+        Posting(long key, String id) {
+            this.key = key;
+            this.id = id;
+        }
+    }
+}
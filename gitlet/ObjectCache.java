@@ -0,0 +1,121 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache of objects read from the database, keyed by object id.
+ *
+ * <p>Objects never change once they are stored, so an entry never becomes
+ * stale and the cache needs no invalidation. Its size is bounded by the
+ * total weight of the entries, roughly their size in bytes, and the least
+ * recently used entries are dropped first once it is full. An entry heavier
+ * than the whole cache is not kept.</p>
+ *
+ * <p>Hits, misses and evictions are counted so the effect of the cache on a
+ * command can be seen, see {@link Config#CACHE_STATS}.</p>
+ *
+ * <p>All methods are synchronized, since the threads of {@link
+ * CheckoutWriter} read objects at the same time.</p>
+ *
+ * @author QIU JINHANG
+ * @param <V> type of the cached values
+ */
+public class ObjectCache<V> {
+
+    /** A cached value with its weight. */
+    private static class Entry<V> {
+        private final V value;
+        private final long weight;
+
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final String name;
+    private final long limit;
+    /** Entries, least recently used first. */
+    private final LinkedHashMap<String, Entry<V>> entries =
+            new LinkedHashMap<String, Entry<V>>(16, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Create an empty cache
+     * @param name what is cached, used by {@link #toString}
+     * @param limit largest total weight of the entries
+     */
+    public ObjectCache(String name, long limit) {
+        this.name = name;
+        this.limit = limit;
+    }
+
+    /**
+     * Get the value cached for ID
+     * @param id full id of the object
+     * @return value, or null if it is not cached
+     */
+    public synchronized V get(String id) {
+        Entry<V> entry = entries.get(id);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Cache VALUE for ID, dropping the least recently used entries if the
+     * cache gets too heavy
+     * @param id full id of the object
+     * @param value value to cache
+     * @param valueWeight weight of the value, e.g. its size in bytes
+     */
+    public synchronized void put(String id, V value, long valueWeight) {
+        if (valueWeight > limit) {
+            return;
+        }
+        Entry<V> old = entries.put(id, new Entry<V>(value, valueWeight));
+        if (old != null) {
+            weight -= old.weight;
+        }
+        weight += valueWeight;
+        Iterator<Entry<V>> it = entries.values().iterator();
+        while (weight > limit && it.hasNext()) {
+            weight -= it.next().weight;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Get the total weight of the cached values
+     * @return weight
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s cache: %d hits, %d misses, %d evictions, %d entries, %d bytes",
+                name, hits, misses, evictions, entries.size(), weight);
+    }
+}
@@ -0,0 +1,203 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Repository.OBJECT_INDEX_FILE;
+import static gitlet.Utils.*;
+
+/**
+ * A sorted index of every object id in the object database.
+ *
+ * <p>The index is a plain file of fixed-width records, one 40-digit id
+ * followed by a newline per record, kept in lexicographic order. Because
+ * every record has the same width, the n-th id lives at offset
+ * {@code n * RECORD_LENGTH}, so abbreviated ids can be resolved with a
+ * binary search that only touches O(log n) records instead of listing the
+ * whole object directory.</p>
+ *
+ * <p>Ids of the objects saved by a command are kept in memory and merged
+ * into the file in one pass when the command commits, so a command saving
+ * k objects rewrites the index once rather than k times. Lookups made in
+ * the meantime see them as well.</p>
+ *
+ * @author QIU JINHANG
+ */
+public class ObjectIndex {
+
+    /** Width of one record: a full id and its trailing newline. */
+    private static final int RECORD_LENGTH = UID_LENGTH + 1;
+
+    /** Ids added by the running command, not yet in the index file. */
+    private static final TreeSet<String> pending = new TreeSet<String>();
+
+    /**
+     * Add ID to the index. The index file is only rewritten once, by {@link
+     * #flush} when the command commits, however many objects it saves.
+     * @param id full id of a newly saved object
+     */
+    public static synchronized void add(String id) {
+        pending.add(id);
+    }
+
+    /**
+     * Add every id of IDS to the index, as {@link #add} does
+     * @param ids full ids of newly saved objects
+     */
+    public static synchronized void addAll(Collection<String> ids) {
+        pending.addAll(ids);
+    }
+
+    /**
+     * Merge the ids added by the running command into the index file, in a
+     * single pass over the file and a single rewrite. Called by {@link
+     * Transaction#commit}.
+     */
+    public static synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        byte[] records = OBJECT_INDEX_FILE.exists()
+                ? readContents(OBJECT_INDEX_FILE)
+                : new byte[0];
+        int count = records.length / RECORD_LENGTH;
+        ByteArrayOutputStream merged =
+                new ByteArrayOutputStream(records.length + pending.size() * RECORD_LENGTH);
+        int pos = 0;
+        for (String id : pending) {
+            int end = lowerBound(records, pos, count, id);
+            merged.write(records, pos * RECORD_LENGTH, (end - pos) * RECORD_LENGTH);
+            pos = end;
+            if (pos < count && id.equals(recordAt(records, pos))) {
+                continue;
+            }
+            merged.writeBytes((id + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        merged.write(records, pos * RECORD_LENGTH, (count - pos) * RECORD_LENGTH);
+        pending.clear();
+        Transaction.writeContents(OBJECT_INDEX_FILE, (Object) merged.toByteArray());
+    }
+
+    /**
+     * Find every id in the index starting with PREFIX.
+     *
+     * <p>The first candidate is located by binary search directly on the
+     * index file, then matching records are read forward until the prefix
+     * no longer matches.</p>
+     *
+     * @param prefix abbreviated (or full) object id
+     * @return sorted list of matching ids, empty if there is none
+     */
+    public static List<String> findByPrefix(String prefix) {
+        TreeSet<String> matches = new TreeSet<String>();
+        synchronized (ObjectIndex.class) {
+            for (String id : pending.tailSet(prefix)) {
+                if (!id.startsWith(prefix)) {
+                    break;
+                }
+                matches.add(id);
+            }
+        }
+        if (!OBJECT_INDEX_FILE.exists()) {
+            return new ArrayList<String>(matches);
+        }
+        try (RandomAccessFile index = new RandomAccessFile(OBJECT_INDEX_FILE, "r")) {
+            long count = index.length() / RECORD_LENGTH;
+            long low = 0;
+            long high = count;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                if (readRecord(index, mid).compareTo(prefix) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            for (long i = low; i < count; i++) {
+                String id = readRecord(index, i);
+                if (!id.startsWith(prefix)) {
+                    break;
+                }
+                matches.add(id);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new ArrayList<String>(matches);
+    }
+
+    /**
+     * Get every id in the index, in lexicographic order.
+     * @return list of all object ids
+     */
+    public static synchronized List<String> allIds() {
+        TreeSet<String> ids = new TreeSet<String>(pending);
+        if (OBJECT_INDEX_FILE.exists()) {
+            byte[] records = readContents(OBJECT_INDEX_FILE);
+            int count = records.length / RECORD_LENGTH;
+            for (int i = 0; i < count; i++) {
+                ids.add(recordAt(records, i));
+            }
+        }
+        return new ArrayList<String>(ids);
+    }
+
+    /**
+     * Replace the index with IDS, dropping the ids added since the last
+     * flush which are not among them
+     * @param ids sorted list of full ids
+     */
+    public static synchronized void write(List<String> ids) {
+        pending.clear();
+        StringBuilder records = new StringBuilder(ids.size() * RECORD_LENGTH);
+        for (String id : ids) {
+            records.append(id).append('\n');
+        }
+        Transaction.writeContents(OBJECT_INDEX_FILE, records.toString());
+    }
+
+    /**
+     * Find the position of the first record from LOW on which is not less
+     * than ID.
+     * @param records content of the index file
+     * @param low first record to look at
+     * @param count number of records
+     * @param id to search for
+     * @return insertion position of id
+     */
+    private static int lowerBound(byte[] records, int low, int count, String id) {
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (recordAt(records, mid).compareTo(id) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Get the id stored in the N-th record of RECORDS.
+     */
+    private static String recordAt(byte[] records, int n) {
+        return new String(records, n * RECORD_LENGTH, UID_LENGTH, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read the id stored in the N-th record of INDEX.
+     */
+    private static String readRecord(RandomAccessFile index, long n) throws IOException {
+        byte[] record = new byte[UID_LENGTH];
+        index.seek(n * RECORD_LENGTH);
+        index.readFully(record);
+        return new String(record, StandardCharsets.UTF_8);
+    }
+}
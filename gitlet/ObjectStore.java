@@ -0,0 +1,993 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.GitUtils.*;
+import static gitlet.Repository.OBJECT_DIR;
+import static gitlet.Utils.*;
+
+/**
+ * Stores commits and blobs in the object database.
+ *
+ * <p>Objects are spread over fan-out directories named by the first two
+ * hex digits of their id, with the remaining digits as the file name:</p>
+ * <pre>
+ * .gitlet/objects
+ *    |-- 3f
+ *    |    |-- 8a1c...: object 3f8a1c...
+ *    |-- index: sorted list of all loose object ids, see {@link ObjectIndex}
+ *    |-- pack
+ *         |-- pack-*.pack, pack-*.idx: packed objects, see {@link PackFile}
+ * </pre>
+ * This keeps every directory small no matter how many objects the
+ * repository holds. Objects are first written loose; {@link #repack()}
+ * moves them into a pack. Lookups check the loose objects first and then
+ * every pack, so callers never need to know where an object lives.
+ *
+ * <p>Every stored object starts with a small uncompressed header:</p>
+ * <pre>
+ * | type | size | body |
+ * </pre>
+ * where type is 'C' for a commit, 'T' for a tree, 'B' for a blob, 'R' for
+ * an uncompressed blob, 'D' for a blob stored as a delta or 'L' for a blob
+ * stored as a list of chunks, and size is the length of the encoded object
+ * as a varint. Commits, trees and blobs are followed by their compressed
+ * encoding, uncompressed blobs by their plain encoding.
+ *
+ * <p>Blobs which do not compress well, such as media or archives, are
+ * stored uncompressed (see {@link Config#COMPRESSION}). Their content is
+ * then a plain range of the object file or pack, and
+ * {@link #restoreBlob(String, File)} moves it to the working tree with
+ * {@link FileChannel#transferTo} or a write from the mapped pack, without
+ * copying it through the heap.</p>
+ *
+ * <p>Scans such as global-log only read the type byte, so they never
+ * inflate blobs.</p>
+ *
+ * <p>A delta body refers to a base object:</p>
+ * <pre>
+ * | depth | base id (20 bytes) | compressed delta |
+ * </pre>
+ * where depth is the number of deltas a reader follows to rebuild it.
+ * Chains are cut at {@link #MAX_DELTA_DEPTH} by storing the next version
+ * in full, and rebuilt bases are kept in a small cache so walking many
+ * versions of a file does not rebuild the same base over and over.
+ *
+ * <p>When the {@link Config#CHUNKING} setting is on, large files are split
+ * by {@link Chunker} and every chunk is stored as a blob of its own. The
+ * file is then stored as a chunk list:</p>
+ * <pre>
+ * | 'L' | size | compressed (count | chunk id | chunk length | ...) |
+ * </pre>
+ * Chunks shared by several versions or files are stored once, and reading
+ * the file streams its chunks one after another.
+ *
+ * @author QIU JINHANG
+ */
+public class ObjectStore {
+
+    /** Number of leading id digits used as the fan-out directory name. */
+    private static final int FAN_OUT_LENGTH = 2;
+
+    /** Type of a commit object. */
+    public static final int COMMIT = 'C';
+    /** Type of a tree object. */
+    public static final int TREE = 'T';
+    /** Type of a blob object. */
+    public static final int BLOB = 'B';
+    /** Type stored for a blob kept as a delta; reported as BLOB. */
+    private static final int DELTA = 'D';
+    /** Type stored for a blob kept as a list of chunks; reported as BLOB. */
+    private static final int CHUNKED = 'L';
+    /** Type stored for a blob kept uncompressed; reported as BLOB. */
+    private static final int RAW = 'R';
+    /** A blob is stored uncompressed unless compressing it saves this fraction. */
+    private static final double MIN_COMPRESSION_SAVING = 0.1;
+    /** Default for the CHUNKING_MIN_FILE_SIZE setting. */
+    private static final long DEFAULT_CHUNKING_MIN_FILE_SIZE = 1L << 20;
+    /** Largest object stored as or used as the base of a delta. */
+    static final long MAX_DELTA_SIZE = 16L << 20;
+    /** Longest delta chain a reader may have to follow. */
+    private static final int MAX_DELTA_DEPTH = 10;
+    /** Upper bound on the total size of cached delta bases. */
+    private static final long BASE_CACHE_LIMIT = 32L << 20;
+
+    /** Longest header in front of the content of an uncompressed blob. */
+    private static final int RAW_HEADER_LIMIT = 1 + 10 + ObjectCodec.BLOB_HEADER_LENGTH;
+    /** Buffer reused to copy compressed blobs out of the database, one per thread. */
+    private static final ThreadLocal<ByteBuffer> COPY_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(Blob.BUFFER_SIZE));
+
+    /** Default upper bound on the total size of cached decoded objects. */
+    private static final long DEFAULT_OBJECT_CACHE_LIMIT = 64L << 20;
+
+    /** Uncompressed contents of recently read delta bases. */
+    static final ObjectCache<byte[]> BASE_CACHE =
+            new ObjectCache<byte[]>("delta base", BASE_CACHE_LIMIT);
+    /**
+     * Recently read commits, trees and blobs, weighted by the length of
+     * their encoding. Callers share the cached instances and must not
+     * change them.
+     */
+    static final ObjectCache<Serializable> OBJECT_CACHE = new ObjectCache<Serializable>(
+            "object", Config.getLong(Config.CACHE_SIZE, DEFAULT_OBJECT_CACHE_LIMIT));
+
+    /**
+     * Get the file an object with the given id is stored in
+     * @param id full id of the object
+     * @return object file
+     */
+    public static File getObjectFile(String id) {
+        return join(OBJECT_DIR, id.substring(0, FAN_OUT_LENGTH), id.substring(FAN_OUT_LENGTH));
+    }
+
+    /**
+     * Determine whether an object with the given full id is stored
+     * @param id full id of the object
+     * @return boolean value
+     */
+    public static boolean contains(String id) {
+        if (id.length() != UID_LENGTH) {
+            return false;
+        }
+        if (getObjectFile(id).exists()) {
+            return true;
+        }
+        for (PackFile pack : PackFile.all()) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Save OBJ under ID, creating its fan-out directory if needed and
+     * recording the id in the object index.
+     * @param id full id of the object
+     * @param obj object to save
+     */
+    public static void save(String id, Serializable obj) {
+        writeStored(prepareObjectFile(id), obj);
+        ObjectIndex.add(id);
+    }
+
+    /**
+     * Write OBJ to FILE with its type header and compressed encoding
+     */
+    private static void writeStored(File file, Serializable obj) {
+        byte[] content = ObjectCodec.encode(obj);
+        File tmp = Transaction.newTempFile();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp.toPath()))) {
+            if (obj instanceof Blob
+                    && storeRaw(content, Math.min(content.length, Blob.BUFFER_SIZE))) {
+                out.write(RAW);
+                writeVarint(out, content.length);
+                out.write(content);
+            } else {
+                out.write(obj instanceof Commit ? COMMIT : obj instanceof Tree ? TREE : BLOB);
+                writeVarint(out, content.length);
+                DeflaterOutputStream body = new DeflaterOutputStream(out);
+                body.write(content);
+                body.finish();
+            }
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Transaction.install(tmp, file);
+    }
+
+    /**
+     * Save OBJ under ID as a delta against the object BASEID when that is
+     * much smaller than storing it in full. Falls back to {@link #save}
+     * if there is no usable base or the chain through it is already at
+     * its maximum depth.
+     *
+     * @param id full id of the object
+     * @param obj object to save
+     * @param baseId id of a similar object already stored, or null
+     */
+    public static void save(String id, Serializable obj, String baseId) {
+        if (baseId == null || baseId.equals(id) || !contains(baseId)
+                || sizeOf(baseId) > MAX_DELTA_SIZE) {
+            save(id, obj);
+            return;
+        }
+        int depth = deltaDepth(baseId) + 1;
+        if (depth > MAX_DELTA_DEPTH) {
+            save(id, obj);
+            return;
+        }
+        try {
+            byte[] content = ObjectCodec.encode(obj);
+            byte[] delta = Delta.encode(readUncompressed(baseId), content);
+            if (delta.length >= content.length / 2) {
+                save(id, obj);
+                return;
+            }
+            ByteArrayOutputStream stored = new ByteArrayOutputStream();
+            stored.write(DELTA);
+            writeVarint(stored, content.length);
+            stored.write(depth);
+            stored.write(hexToBytes(baseId));
+            DeflaterOutputStream out = new DeflaterOutputStream(stored);
+            out.write(delta);
+            out.close();
+            File tmp = Transaction.newTempFile();
+            Files.write(tmp.toPath(), stored.toByteArray());
+            Transaction.install(tmp, prepareObjectFile(id));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ObjectIndex.add(id);
+    }
+
+    /**
+     * Store the content of SRC as a blob without loading it into memory. The
+     * file is hashed while it is compressed into a temporary file, which is
+     * then renamed to the id, so it is read only once.
+     * @param src file to store
+     * @return id of the blob
+     */
+    public static String saveBlob(File src) {
+        long size = src.length();
+        if (shouldChunk(size)) {
+            return saveChunkedBlob(src);
+        }
+        MessageDigest md = Blob.newDigest(size);
+        File tmp = Transaction.newTempFile();
+        try (InputStream in = Files.newInputStream(src.toPath());
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp.toPath()))) {
+            byte[] buffer = new byte[Blob.BUFFER_SIZE];
+            int n = in.readNBytes(buffer, 0, buffer.length);
+            boolean raw = storeRaw(buffer, n);
+            out.write(raw ? RAW : BLOB);
+            writeVarint(out, ObjectCodec.BLOB_HEADER_LENGTH + size);
+            DeflaterOutputStream deflater = raw ? null : new DeflaterOutputStream(out);
+            DataOutputStream body = new DataOutputStream(raw ? out : deflater);
+            ObjectCodec.writeBlobHeader(body, size);
+            long copied = 0;
+            while (n > 0) {
+                md.update(buffer, 0, n);
+                body.write(buffer, 0, n);
+                copied += n;
+                n = in.read(buffer);
+            }
+            if (copied != size) {
+                throw new IOException("File changed while it was added: " + src.getPath());
+            }
+            if (deflater != null) {
+                deflater.finish();
+            }
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String id = bytesToHex(md.digest());
+        if (contains(id)) {
+            tmp.delete();
+        } else {
+            Transaction.install(tmp, prepareObjectFile(id));
+            ObjectIndex.add(id);
+        }
+        return id;
+    }
+
+    /**
+     * Store the content of SRC as a list of chunks, each saved as a blob
+     * unless an identical chunk is already stored
+     * @param src file to store
+     * @return id of the blob, the same as if it was stored in full
+     */
+    private static String saveChunkedBlob(File src) {
+        long size = src.length();
+        MessageDigest md = Blob.newDigest(size);
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        DataOutputStream listOut = new DataOutputStream(list);
+        List<String> newIds = new ArrayList<String>();
+        int count = 0;
+        long copied = 0;
+        try (InputStream in = Files.newInputStream(src.toPath())) {
+            Chunker chunker = new Chunker(in);
+            byte[] chunk;
+            while ((chunk = chunker.next()) != null) {
+                md.update(chunk);
+                copied += chunk.length;
+                Blob blob = new Blob(chunk);
+                if (!contains(blob.getId())) {
+                    writeStored(prepareObjectFile(blob.getId()), blob);
+                    newIds.add(blob.getId());
+                }
+                ObjectCodec.writeId(listOut, blob.getId());
+                listOut.writeInt(chunk.length);
+                count++;
+            }
+            if (copied != size) {
+                throw new IOException("File changed while it was added: " + src.getPath());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String id = bytesToHex(md.digest());
+        if (!contains(id)) {
+            File tmp = Transaction.newTempFile();
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp.toPath()))) {
+                out.write(CHUNKED);
+                writeVarint(out, ObjectCodec.BLOB_HEADER_LENGTH + size);
+                DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+                DataOutputStream body = new DataOutputStream(deflater);
+                body.writeInt(count);
+                list.writeTo(body);
+                deflater.finish();
+            } catch (IOException excp) {
+                tmp.delete();
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            Transaction.install(tmp, prepareObjectFile(id));
+            newIds.add(id);
+        }
+        ObjectIndex.addAll(newIds);
+        return id;
+    }
+
+    /**
+     * Determine whether a blob is stored uncompressed, judging by how well
+     * SAMPLE, its first LENGTH bytes, compresses
+     */
+    private static boolean storeRaw(byte[] sample, int length) {
+        String compression = Config.get(Config.COMPRESSION, "auto");
+        if (!compression.equals("auto")) {
+            return compression.equals("never");
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(sample, 0, length);
+        deflater.finish();
+        int limit = (int) (length * (1 - MIN_COMPRESSION_SAVING));
+        byte[] out = new byte[Math.max(limit, 1)];
+        int compressed = 0;
+        while (!deflater.finished() && compressed < limit) {
+            compressed += deflater.deflate(out, compressed, out.length - compressed);
+        }
+        boolean finished = deflater.finished();
+        deflater.end();
+        return !finished || compressed >= limit;
+    }
+
+    /**
+     * Determine whether a file of SIZE bytes is stored as chunks
+     */
+    private static boolean shouldChunk(long size) {
+        return Config.getBoolean(Config.CHUNKING, false)
+                && size >= Config.getLong(Config.CHUNKING_MIN_FILE_SIZE,
+                        DEFAULT_CHUNKING_MIN_FILE_SIZE);
+    }
+
+    /**
+     * Determine whether a blob of SIZE bytes may be stored as a delta
+     * @param size length of the content
+     * @return boolean value
+     */
+    static boolean canDelta(long size) {
+        return size <= MAX_DELTA_SIZE && !shouldChunk(size);
+    }
+
+    /**
+     * Get the file for object ID, creating its fan-out directory if needed
+     */
+    private static File prepareObjectFile(String id) {
+        File file = getObjectFile(id);
+        File fanOutDir = file.getParentFile();
+        if (!fanOutDir.exists()) {
+            mkdir(fanOutDir);
+        }
+        return file;
+    }
+
+    /**
+     * Read the object with the given full id
+     * @param id full id of the object
+     * @param expectedClass class of the object
+     * @return the object
+     */
+    public static <T extends Serializable> T read(String id, Class<T> expectedClass) {
+        try {
+            Serializable obj = OBJECT_CACHE.get(id);
+            if (obj == null) {
+                obj = readStored(id);
+            }
+            return expectedClass.cast(obj);
+        } catch (ClassCastException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Decode the object with the given full id from its stored form and
+     * add it to the object cache
+     */
+    private static Serializable readStored(String id) {
+        Serializable obj;
+        long weight;
+        try {
+            InputStream in = openStored(id);
+            int type = in.read();
+            if (type == COMMIT || type == TREE || type == BLOB) {
+                weight = readVarint(in);
+                try (InputStream body = new InflaterInputStream(new BufferedInputStream(in))) {
+                    obj = ObjectCodec.decode(body, Serializable.class);
+                }
+            } else if (type == RAW) {
+                weight = readVarint(in);
+                try (InputStream body = in) {
+                    obj = ObjectCodec.decode(body, Serializable.class);
+                }
+            } else if (type == DELTA) {
+                in.close();
+                byte[] content = readUncompressed(id);
+                weight = content.length;
+                obj = ObjectCodec.decode(new ByteArrayInputStream(content), Serializable.class);
+            } else if (type == CHUNKED) {
+                in.close();
+                try (InputStream content = openBlob(id)) {
+                    Blob blob = new Blob(content.readAllBytes());
+                    weight = blob.getBytes().length;
+                    obj = blob;
+                }
+            } else {
+                in.close();
+                /* An untyped object written by an older version. */
+                weight = getObjectFile(id).length();
+                obj = readObject(openStored(id), Serializable.class);
+            }
+        } catch (IOException | ClassCastException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        OBJECT_CACHE.put(id, obj, weight);
+        return obj;
+    }
+
+    /**
+     * Open a stream over the content of the blob with the given full id.
+     * Blobs stored in full are inflated as they are read, so memory use does
+     * not depend on their size.
+     * @param id full id of the blob
+     * @return stream over the content, which the caller must close
+     */
+    public static InputStream openBlob(String id) {
+        try {
+            InputStream in = openStored(id);
+            int type = in.read();
+            if (type == BLOB) {
+                readVarint(in);
+                return ObjectCodec.openBlob(new InflaterInputStream(new BufferedInputStream(in)));
+            }
+            if (type == RAW) {
+                readVarint(in);
+                return ObjectCodec.openBlob(new BufferedInputStream(in));
+            }
+            if (type == CHUNKED) {
+                readVarint(in);
+                return openChunks(readChunkList(in));
+            }
+            in.close();
+            if (type == DELTA) {
+                return ObjectCodec.openBlob(new ByteArrayInputStream(readUncompressed(id)));
+            }
+            return new ByteArrayInputStream(read(id, Blob.class).getBytes());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Write the content of the blob with the given full id to DEST,
+     * replacing DEST if it exists.
+     *
+     * <p>DEST is replaced through a temporary file, see {@link
+     * GitUtils#replaceFile}, so a missing or corrupt object leaves DEST as it
+     * was instead of truncated. The content of an uncompressed blob is moved
+     * straight from the object file with {@link FileChannel#transferTo}, or
+     * written from the mapped pack, so it is never copied onto the heap.
+     * Other blobs are inflated through a buffer reused by each thread.
+     * Several blobs may be restored at once from different threads, see
+     * {@link CheckoutWriter}.</p>
+     *
+     * @param id full id of the blob
+     * @param dest file to write
+     */
+    public static void restoreBlob(String id, File dest) {
+        if (!contains(id)) {
+            throw new IllegalArgumentException("No object with id " + id);
+        }
+        replaceFile(dest, out -> copyBlob(id, out));
+    }
+
+    /**
+     * Write the content of the blob with the given full id to OUT
+     */
+    private static void copyBlob(String id, FileChannel out) throws IOException {
+        File file = getObjectFile(id);
+        if (file.exists()) {
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(RAW_HEADER_LIMIT);
+                in.read(header, 0);
+                header.flip();
+                if (header.get() == RAW) {
+                    long size = readVarint(header) - ObjectCodec.BLOB_HEADER_LENGTH;
+                    long position = header.position() + ObjectCodec.BLOB_HEADER_LENGTH;
+                    long copied = 0;
+                    while (copied < size) {
+                        copied += in.transferTo(position + copied, size - copied, out);
+                    }
+                    return;
+                }
+            }
+        } else {
+            for (PackFile pack : PackFile.all()) {
+                ByteBuffer entry = pack.get(id);
+                if (entry != null && entry.get(0) == RAW) {
+                    entry.get();
+                    readVarint(entry);
+                    entry.position(entry.position() + ObjectCodec.BLOB_HEADER_LENGTH);
+                    while (entry.hasRemaining()) {
+                        out.write(entry);
+                    }
+                    return;
+                }
+            }
+        }
+        try (InputStream in = openBlob(id)) {
+            ReadableByteChannel src = Channels.newChannel(in);
+            ByteBuffer buffer = COPY_BUFFER.get();
+            buffer.clear();
+            while (src.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+    }
+
+    /**
+     * Read a varint from the current position of BUFFER
+     */
+    private static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Read the chunk ids of a chunk list whose header has been read
+     */
+    private static List<String> readChunkList(InputStream in) throws IOException {
+        try (DataInputStream list = new DataInputStream(
+                new InflaterInputStream(new BufferedInputStream(in)))) {
+            int count = list.readInt();
+            List<String> chunkIds = new ArrayList<String>(count);
+            for (int i = 0; i < count; i++) {
+                chunkIds.add(ObjectCodec.readId(list));
+                list.readInt();
+            }
+            return chunkIds;
+        }
+    }
+
+    /**
+     * Concatenate the content of the blobs CHUNKIDS, opening each chunk
+     * only when the previous one has been read
+     */
+    private static InputStream openChunks(List<String> chunkIds) {
+        Iterator<String> chunks = chunkIds.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return chunks.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                return openBlob(chunks.next());
+            }
+        });
+    }
+
+    /**
+     * Get the length of the content of the blob with the given full id.
+     * Only the headers in front of the content are read and inflated; a
+     * blob stored as a delta is rebuilt, which is cheap as deltas are only
+     * used for small blobs.
+     * @param id full id of the blob
+     * @return length in bytes
+     */
+    public static long contentSize(String id) {
+        try {
+            InputStream in = openStored(id);
+            int type = in.read();
+            if (type == BLOB) {
+                readVarint(in);
+                try (InputStream body = new InflaterInputStream(new BufferedInputStream(in))) {
+                    return ObjectCodec.readBlobLength(body);
+                }
+            }
+            if (type == RAW) {
+                readVarint(in);
+                try (InputStream body = in) {
+                    return ObjectCodec.readBlobLength(body);
+                }
+            }
+            if (type == CHUNKED) {
+                long size = readVarint(in) - ObjectCodec.BLOB_HEADER_LENGTH;
+                in.close();
+                return size;
+            }
+            in.close();
+            if (type == DELTA) {
+                return ObjectCodec.readBlobLength(new ByteArrayInputStream(readUncompressed(id)));
+            }
+            return read(id, Blob.class).getBytes().length;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Get the length of the encoding of the object with the given full id,
+     * reading only its header.
+     * @param id full id of the object
+     * @return length in bytes
+     */
+    public static long sizeOf(String id) {
+        try (InputStream in = openStored(id)) {
+            int type = in.read();
+            if (type == COMMIT || type == TREE || type == BLOB || type == DELTA
+                    || type == CHUNKED || type == RAW) {
+                return readVarint(in);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        /* An untyped object written by an older version. */
+        return ObjectCodec.encode(read(id, Serializable.class)).length;
+    }
+
+    /**
+     * Get the type of the object with the given full id, reading only its
+     * header.
+     * @param id full id of the object
+     * @return {@link #COMMIT}, {@link #TREE} or {@link #BLOB}
+     */
+    public static int typeOf(String id) {
+        int type;
+        try (InputStream in = openStored(id)) {
+            type = in.read();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (type == COMMIT || type == TREE || type == BLOB) {
+            return type;
+        } else if (type == DELTA || type == CHUNKED || type == RAW) {
+            return BLOB;
+        }
+        /* An untyped object written by an older version. */
+        return read(id, Serializable.class) instanceof Commit ? COMMIT : BLOB;
+    }
+
+    /**
+     * Open the stored form of object ID, from its loose file or a pack
+     */
+    private static InputStream openStored(String id) throws IOException {
+        File file = getObjectFile(id);
+        if (file.exists()) {
+            return new FileInputStream(file);
+        }
+        for (PackFile pack : PackFile.all()) {
+            InputStream in = pack.open(id);
+            if (in != null) {
+                return in;
+            }
+        }
+        throw new IllegalArgumentException("No object with id " + id);
+    }
+
+    /**
+     * Get the uncompressed encoding of object ID, rebuilding it from its
+     * delta chain if necessary. Results are cached for use as delta bases.
+     */
+    private static byte[] readUncompressed(String id) throws IOException {
+        byte[] content = BASE_CACHE.get(id);
+        if (content != null) {
+            return content;
+        }
+        try (InputStream in = new BufferedInputStream(openStored(id))) {
+            int type = in.read();
+            if (type == DELTA) {
+                readVarint(in);
+                in.read();
+                String baseId = bytesToHex(in.readNBytes(UID_LENGTH / 2));
+                byte[] delta = new InflaterInputStream(in).readAllBytes();
+                content = Delta.apply(readUncompressed(baseId), delta);
+            } else if (type == COMMIT || type == TREE || type == BLOB) {
+                readVarint(in);
+                content = new InflaterInputStream(in).readAllBytes();
+            } else if (type == RAW) {
+                readVarint(in);
+                content = in.readAllBytes();
+            } else {
+                content = ObjectCodec.encode(read(id, Serializable.class));
+            }
+        }
+        BASE_CACHE.put(id, content, content.length);
+        return content;
+    }
+
+    /**
+     * Get the number of deltas to follow to rebuild object ID
+     */
+    private static int deltaDepth(String id) {
+        try (InputStream in = openStored(id)) {
+            if (in.read() != DELTA) {
+                return 0;
+            }
+            readVarint(in);
+            return in.read();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Write VALUE seven bits at a time, low bits first
+     */
+    private static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Read a varint written by writeVarint
+     */
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+
+    /**
+     * Expand an abbreviated id to the full id of the only object of the
+     * given type it matches. If the prefix matches more than one such
+     * object, print an error message and exit rather than picking one of
+     * them.
+     *
+     * @param prefix abbreviated (or full) id
+     * @param type {@link #COMMIT}, {@link #TREE} or {@link #BLOB}
+     * @return full id, or null if no object matches
+     */
+    public static String resolve(String prefix, int type) {
+        if (contains(prefix)) {
+            return typeOf(prefix) == type ? prefix : null;
+        }
+        TreeSet<String> found = new TreeSet<String>(ObjectIndex.findByPrefix(prefix));
+        for (PackFile pack : PackFile.all()) {
+            found.addAll(pack.findByPrefix(prefix));
+        }
+        List<String> matches = new ArrayList<String>();
+        for (String id : found) {
+            if (typeOf(id) == type) {
+                matches.add(id);
+            }
+        }
+        if (matches.isEmpty()) {
+            return null;
+        }
+        if (matches.size() > 1) {
+            System.out.println("Ambiguous id " + prefix + " matches " + matches.size()
+                    + (type == COMMIT ? " commits." : type == TREE ? " trees." : " blobs."));
+            exit(0);
+        }
+        return matches.get(0);
+    }
+
+    /**
+     * Get a list of ids of all objects in the database, sorted
+     * @return list of ids
+     */
+    public static List<String> allIds() {
+        TreeSet<String> ids = new TreeSet<String>(ObjectIndex.allIds());
+        for (PackFile pack : PackFile.all()) {
+            ids.addAll(pack.allIds());
+        }
+        return new ArrayList<String>(ids);
+    }
+
+    /**
+     * Get the ids of all commits in the database, sorted. Only object
+     * headers are read, so blobs are never inflated.
+     * @return list of commit ids
+     */
+    public static List<String> allCommitIds() {
+        List<String> commitIds = new ArrayList<String>();
+        for (String id : allIds()) {
+            if (typeOf(id) == COMMIT) {
+                commitIds.add(id);
+            }
+        }
+        return commitIds;
+    }
+
+    /**
+     * Rewrite every object in the current layout and binary format.
+     *
+     * <p>Objects from older repositories may be Java-serialized, kept
+     * directly in the objects directory, or packed as deltas against such
+     * objects. All of them are first decoded and written to DIR, while the
+     * old store is left untouched so delta bases still match. Only then are
+     * the old objects and packs deleted and the rewritten ones moved into
+     * their fan-out directories. Objects which already have a type header
+     * are copied unchanged, so large blobs are never loaded.</p>
+     *
+     * @param dir empty scratch directory
+     */
+    public static void migrate(File dir) {
+        List<String> flatIds = new ArrayList<String>();
+        for (String name : plainFilenamesIn(OBJECT_DIR)) {
+            if (name.length() == UID_LENGTH) {
+                flatIds.add(name);
+            }
+        }
+        List<String> looseIds = ObjectIndex.allIds();
+        List<String> storedIds = allIds();
+        TreeSet<String> ids = new TreeSet<String>(storedIds);
+        ids.addAll(flatIds);
+
+        for (String id : flatIds) {
+            Serializable obj = readObject(join(OBJECT_DIR, id), Serializable.class);
+            writeTrees(obj);
+            writeStored(join(dir, id), obj);
+        }
+        for (String id : storedIds) {
+            if (!isTyped(id)) {
+                Serializable obj = read(id, Serializable.class);
+                writeTrees(obj);
+                writeStored(join(dir, id), obj);
+                continue;
+            }
+            Commit commit = typeOf(id) == COMMIT ? read(id, Commit.class) : null;
+            if (commit != null && commit.writeTree()) {
+                writeStored(join(dir, id), commit);
+            } else {
+                copyStored(id, join(dir, id));
+            }
+        }
+
+        /* Nothing is deleted until every rewritten object is on disk. */
+        Transaction.commit();
+        for (String id : flatIds) {
+            join(OBJECT_DIR, id).delete();
+        }
+        for (String id : looseIds) {
+            File file = getObjectFile(id);
+            file.delete();
+            file.getParentFile().delete();
+        }
+        PackFile.deleteAll();
+        for (String id : ids) {
+            Transaction.install(join(dir, id), prepareObjectFile(id));
+        }
+        /* Trees built for older commits were saved directly. */
+        ids.addAll(ObjectIndex.allIds());
+        ObjectIndex.write(new ArrayList<String>(ids));
+    }
+
+    /**
+     * Store the trees of OBJ if it is a commit written before trees existed
+     */
+    private static void writeTrees(Serializable obj) {
+        if (obj instanceof Commit) {
+            ((Commit) obj).writeTree();
+        }
+    }
+
+    /**
+     * Determine whether object ID was stored with a type header
+     */
+    private static boolean isTyped(String id) {
+        try (InputStream in = openStored(id)) {
+            int type = in.read();
+            return type == COMMIT || type == TREE || type == BLOB || type == DELTA
+                    || type == CHUNKED || type == RAW;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Copy the stored form of object ID to FILE unchanged
+     */
+    private static void copyStored(String id, File file) {
+        File tmp = Transaction.newTempFile();
+        try (InputStream in = openStored(id)) {
+            Files.copy(in, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Transaction.install(tmp, file);
+    }
+
+    /**
+     * Move every loose object into a new pack, then delete the loose files
+     * and their now empty fan-out directories. Objects too large for a pack
+     * entry stay loose.
+     */
+    public static void repack() {
+        List<String> looseIds = new ArrayList<String>();
+        List<String> tooLarge = new ArrayList<String>();
+        for (String id : ObjectIndex.allIds()) {
+            if (getObjectFile(id).length() > PackFile.MAX_ENTRY_LENGTH) {
+                tooLarge.add(id);
+            } else {
+                looseIds.add(id);
+            }
+        }
+        if (looseIds.isEmpty()) {
+            return;
+        }
+        PackFile.write(looseIds);
+        /* The loose copies are only deleted once the pack is on disk. */
+        Transaction.commit();
+        for (String id : looseIds) {
+            File file = getObjectFile(id);
+            file.delete();
+            file.getParentFile().delete();
+        }
+        ObjectIndex.write(tooLarge);
+    }
+}
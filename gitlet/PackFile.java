@@ -0,0 +1,349 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.GitUtils.*;
+import static gitlet.Repository.PACK_DIR;
+import static gitlet.Utils.*;
+
+/**
+ * A packfile holding many objects in a single file, together with a sorted
+ * index used to find them.
+ *
+ * <p>Layout of {@code pack-<name>.pack}:</p>
+ * <pre>
+ * | magic | version | object count | entry | entry | ... |
+ * </pre>
+ * Each entry is the stored (compressed) form of one object, exactly as it
+ * would appear in a loose object file. The pack is only ever appended to
+ * while it is written and never modified afterwards.
+ *
+ * <p>Layout of {@code pack-<name>.idx}:</p>
+ * <pre>
+ * | magic | version | fan-out[256] | ids[n] | offsets[n] | lengths[n] |
+ * </pre>
+ * {@code fan-out[b]} is the number of ids whose first byte is at most b, and
+ * ids are stored as raw 20-byte SHA-1 digests in sorted order. The index is
+ * memory-mapped, so a lookup is a fan-out read plus a binary search over the
+ * mapped ids, with no parsing of the whole file.
+ *
+ * @author QIU JINHANG
+ */
+public class PackFile {
+
+    private static final int PACK_MAGIC = 0x5041434b;
+    private static final int INDEX_MAGIC = 0x50494458;
+    private static final int VERSION = 1;
+    private static final int PACK_HEADER_LENGTH = 12;
+
+    /** Largest stored object a pack entry can hold. */
+    static final long MAX_ENTRY_LENGTH = Integer.MAX_VALUE;
+
+    /** Length of a raw SHA-1 digest. */
+    private static final int HASH_LENGTH = UID_LENGTH / 2;
+    private static final int FAN_OUT_SIZE = 256;
+    /** Offset of the first id in the index, after magic, version and fan-out. */
+    private static final int IDS_OFFSET = 8 + FAN_OUT_SIZE * 4;
+
+    private final File packFile;
+    private final ByteBuffer index;
+    /** The whole pack mapped at once, or null if it is too large to map. */
+    private final ByteBuffer pack;
+    private final int count;
+
+    /** Packs found in PACK_DIR, loaded on first use. */
+    private static List<PackFile> packs;
+
+    private PackFile(File indexFile) {
+        String name = indexFile.getName();
+        this.packFile = join(indexFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        this.index = map(indexFile);
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("bad pack index: " + indexFile.getPath());
+        }
+        this.count = index.getInt(8 + (FAN_OUT_SIZE - 1) * 4);
+        this.pack = packFile.length() <= Integer.MAX_VALUE ? map(packFile) : null;
+    }
+
+    /**
+     * Get all packs in the repository
+     * @return list of packs
+     */
+    public static synchronized List<PackFile> all() {
+        if (packs == null) {
+            packs = new ArrayList<PackFile>();
+            List<String> names = plainFilenamesIn(PACK_DIR);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        packs.add(new PackFile(join(PACK_DIR, name)));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /**
+     * Delete every pack and its index
+     */
+    public static synchronized void deleteAll() {
+        List<String> names = plainFilenamesIn(PACK_DIR);
+        if (names != null) {
+            for (String name : names) {
+                join(PACK_DIR, name).delete();
+            }
+        }
+        packs = null;
+    }
+
+    /**
+     * Determine whether this pack holds the object with the given id
+     * @param id full id of the object
+     * @return boolean value
+     */
+    public boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /**
+     * Open a stream over the stored form of the object with the given id
+     * @param id full id of the object
+     * @return stream over the stored object, or null if it is not in this pack
+     */
+    public InputStream open(String id) {
+        ByteBuffer entry = get(id);
+        return entry == null ? null : new ByteBufferInputStream(entry);
+    }
+
+    /**
+     * Get a read-only view of the stored form of the object with the given
+     * id, straight from the mapped pack
+     * @param id full id of the object
+     * @return view of the stored object, or null if it is not in this pack
+     */
+    public ByteBuffer get(String id) {
+        int pos = find(id);
+        if (pos < 0) {
+            return null;
+        }
+        long offset = index.getLong(IDS_OFFSET + count * HASH_LENGTH + pos * 8);
+        int length = index.getInt(IDS_OFFSET + count * (HASH_LENGTH + 8) + pos * 4);
+        return entry(offset, length);
+    }
+
+    /**
+     * Find every id in this pack starting with PREFIX
+     * @param prefix abbreviated id
+     * @return sorted list of matching ids
+     */
+    public List<String> findByPrefix(String prefix) {
+        List<String> matches = new ArrayList<String>();
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (idAt(mid).compareTo(prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < count && idAt(i).startsWith(prefix); i++) {
+            matches.add(idAt(i));
+        }
+        return matches;
+    }
+
+    /**
+     * Get every id in this pack
+     * @return sorted list of ids
+     */
+    public List<String> allIds() {
+        List<String> ids = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(idAt(i));
+        }
+        return ids;
+    }
+
+    /**
+     * Locate an id in the index. The fan-out table narrows the search to
+     * ids sharing the first byte, which are then binary searched.
+     * @param id full id to look for
+     * @return position of the id, or -1 if it is absent
+     */
+    private int find(String id) {
+        if (id.length() != UID_LENGTH) {
+            return -1;
+        }
+        byte[] target = hexToBytes(id);
+        int first = target[0] & 0xff;
+        int low = first == 0 ? 0 : index.getInt(8 + (first - 1) * 4);
+        int high = index.getInt(8 + first * 4);
+        byte[] candidate = new byte[HASH_LENGTH];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            index.get(IDS_OFFSET + mid * HASH_LENGTH, candidate);
+            int cmp = Arrays.compareUnsigned(candidate, target);
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the id at position N of the index as a hex string
+     */
+    private String idAt(int n) {
+        byte[] raw = new byte[HASH_LENGTH];
+        index.get(IDS_OFFSET + n * HASH_LENGTH, raw);
+        return bytesToHex(raw);
+    }
+
+    /**
+     * Get a view of the LENGTH bytes at OFFSET in the pack
+     */
+    private ByteBuffer entry(long offset, int length) {
+        if (pack != null) {
+            return pack.duplicate().position((int) offset).limit((int) offset + length).slice();
+        }
+        try (FileChannel channel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Map the whole of FILE into memory, read only
+     */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Write the objects with the given ids into a new pack and its index.
+     *
+     * <p>The pack is written before the index, so a pack without an index
+     * is never read. Both are written to temporary files and renamed into
+     * place, so neither is ever seen half written. Callers may delete the
+     * loose copies once the pack has been synced by {@link
+     * Transaction#commit}.</p>
+     *
+     * @param ids sorted ids of loose objects to pack
+     */
+    public static void write(List<String> ids) {
+        if (!PACK_DIR.exists()) {
+            GitUtils.mkdir(PACK_DIR);
+        }
+        String name = "pack-" + sha1(String.join("", ids));
+        File packFile = join(PACK_DIR, name + ".pack");
+        File indexFile = join(PACK_DIR, name + ".idx");
+        long[] offsets = new long[ids.size()];
+        int[] lengths = new int[ids.size()];
+        File tmp = Transaction.newTempFile();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ids.size());
+            long offset = PACK_HEADER_LENGTH;
+            for (int i = 0; i < ids.size(); i++) {
+                File stored = ObjectStore.getObjectFile(ids.get(i));
+                Files.copy(stored.toPath(), out);
+                offsets[i] = offset;
+                lengths[i] = (int) stored.length();
+                offset += stored.length();
+            }
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Transaction.install(tmp, packFile);
+
+        int[] fanOut = new int[FAN_OUT_SIZE];
+        for (String id : ids) {
+            fanOut[Integer.parseInt(id.substring(0, 2), 16)]++;
+        }
+        tmp = Transaction.newTempFile();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            int total = 0;
+            for (int bucket : fanOut) {
+                total += bucket;
+                out.writeInt(total);
+            }
+            for (String id : ids) {
+                out.write(hexToBytes(id));
+            }
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+            for (int length : lengths) {
+                out.writeInt(length);
+            }
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Transaction.install(tmp, indexFile);
+        packs = null;
+    }
+
+    /**
+     * An InputStream reading the remaining bytes of a ByteBuffer, so mapped
+     * entries can be inflated without copying them onto the heap first.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
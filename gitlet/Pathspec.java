@@ -0,0 +1,75 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static gitlet.Repository.CWD;
+
+/**
+ * The paths named on the command line of add and rm: a file, a directory
+ * standing for every file under it, or a glob pattern such as
+ * {@code *.txt} or {@code src/**.java}, matched against paths relative to
+ * the working directory with the syntax of {@link
+ * java.nio.file.FileSystem#getPathMatcher}.
+ *
+ * @author QIU JINHANG
+ */
+public class Pathspec {
+
+    private static final String GLOB_CHARS = "*?[{";
+
+    /**
+     * Determine whether ARG is a glob pattern rather than a path
+     * @param arg argument of the command
+     * @return boolean value
+     */
+    public static boolean isGlob(String arg) {
+        for (char c : arg.toCharArray()) {
+            if (GLOB_CHARS.indexOf(c) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the paths among PATHS named by ARG: the path itself, the paths
+     * under it if it names a directory, or the paths it matches as a glob
+     * @param arg argument of the command, relative to the working directory
+     *            or absolute
+     * @param paths absolute paths to choose from
+     * @return sorted absolute paths, empty if none match
+     */
+    public static List<String> match(String arg, Collection<String> paths) {
+        List<String> matches = new ArrayList<String>();
+        if (isGlob(arg)) {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher(
+                    "glob:" + relativize(Repository.getFile(arg).toPath().normalize()));
+            for (String path : paths) {
+                if (matcher.matches(relativize(new File(path).toPath()))) {
+                    matches.add(path);
+                }
+            }
+        } else {
+            String named = Repository.getFile(arg).toPath().normalize().toString();
+            String prefix = named.endsWith(File.separator) ? named : named + File.separator;
+            for (String path : paths) {
+                if (path.equals(named) || path.startsWith(prefix)) {
+                    matches.add(path);
+                }
+            }
+        }
+        Collections.sort(matches);
+        return matches;
+    }
+
+    private static Path relativize(Path path) {
+        return CWD.toPath().relativize(path);
+    }
+}
@@ -0,0 +1,196 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.GitUtils.*;
+import static gitlet.Repository.BITMAP_FILE;
+
+/**
+ * Reachability bitmaps: for selected commits, the set of commit graph
+ * positions of the commit and all of its ancestors, as a {@link
+ * RoaringBitmap}.
+ *
+ * <p>A bitmap is kept for every merge commit and for every commit none of
+ * whose INTERVAL - 1 nearest first-parent ancestors has one. Every other
+ * commit has a single parent, so a walk from any commit follows one line
+ * of history and reaches a commit with a bitmap, or a root, within
+ * INTERVAL - 1 steps, however the commits of different branches are
+ * interleaved in the graph. Branch heads move with every commit, so they
+ * get none of their own. Whether commit A is an ancestor of commit B is then answered by a short
+ * walk from B, which looks A up in the first bitmap on each path rather
+ * than walking on to the root.</p>
+ *
+ * <p>{@code bitmaps} is append-only: each record is the position and id of
+ * a commit, the length of its bitmap and the bitmap. A record whose commit
+ * is not at that position in the graph, e.g. because the graph lost its
+ * last records in a crash, is ignored. A new bitmap is built
+ * from the bitmaps the walk from its commit runs into, so adding one costs
+ * about INTERVAL steps. A repository without the file gets bitmaps for all
+ * its commits when they are first needed.</p>
+ *
+ * @author QIU JINHANG
+ */
+public class ReachabilityBitmaps {
+
+    /** Commits between two stored bitmaps along a line of history. */
+    public static final int INTERVAL = 64;
+
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+    /** Position and raw id of the commit and length of the bitmap. */
+    private static final int HEADER_LENGTH = 4 + ID_BYTES + 4;
+
+    /** Bitmaps by commit position, or null until loaded. */
+    private static Map<Integer, RoaringBitmap> bitmaps;
+
+    /**
+     * Store a bitmap for the newly saved commit at POS if it is selected
+     * @param pos position of the commit in the commit graph
+     */
+    public static void add(int pos) {
+        load();
+        if (isSelected(pos) && !bitmaps.containsKey(pos)) {
+            store(pos);
+        }
+    }
+
+    /**
+     * Determine whether commit ANCESTOR is reachable from commit DESCENDANT
+     * by following parents. A commit counts as reachable from itself.
+     * @param ancestor position of the possible ancestor
+     * @param descendant position of the possible descendant
+     * @return boolean value
+     */
+    public static boolean isAncestor(int ancestor, int descendant) {
+        load();
+        int minGeneration = CommitGraph.generationAt(ancestor);
+        BitSet seen = new BitSet();
+        Deque<Integer> stack = new ArrayDeque<Integer>();
+        stack.push(descendant);
+        seen.set(descendant);
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            if (pos == ancestor) {
+                return true;
+            }
+            RoaringBitmap bitmap = bitmaps.get(pos);
+            if (bitmap != null) {
+                if (bitmap.contains(ancestor)) {
+                    return true;
+                }
+                continue;
+            }
+            for (int parent : new int[] {CommitGraph.firstParent(pos),
+                                         CommitGraph.secondParent(pos)}) {
+                if (parent != CommitGraph.NONE && !seen.get(parent)
+                        && CommitGraph.generationAt(parent) >= minGeneration) {
+                    seen.set(parent);
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determine whether the commit at POS gets a bitmap, walking at most
+     * INTERVAL - 1 first parents back to the nearest bitmap
+     */
+    private static boolean isSelected(int pos) {
+        if (CommitGraph.secondParent(pos) != CommitGraph.NONE) {
+            return true;
+        }
+        int steps = 1;
+        for (int parent = CommitGraph.firstParent(pos); parent != CommitGraph.NONE
+                && !bitmaps.containsKey(parent); parent = CommitGraph.firstParent(parent)) {
+            if (++steps == INTERVAL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Build, append and remember the bitmap of the commit at POS
+     */
+    private static void store(int pos) {
+        BitSet reachable = new BitSet(pos + 1);
+        Deque<Integer> stack = new ArrayDeque<Integer>();
+        stack.push(pos);
+        reachable.set(pos);
+        while (!stack.isEmpty()) {
+            int current = stack.pop();
+            RoaringBitmap bitmap = bitmaps.get(current);
+            if (bitmap != null) {
+                bitmap.orInto(reachable);
+                continue;
+            }
+            for (int parent : new int[] {CommitGraph.firstParent(current),
+                                         CommitGraph.secondParent(current)}) {
+                if (parent != CommitGraph.NONE && !reachable.get(parent)) {
+                    reachable.set(parent);
+                    stack.push(parent);
+                }
+            }
+        }
+        byte[] encoded = RoaringBitmap.encode(reachable);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + encoded.length);
+        record.putInt(pos).put(hexToBytes(CommitGraph.idAt(pos)))
+                .putInt(encoded.length).put(encoded);
+        Transaction.append(BITMAP_FILE, record.array());
+        bitmaps.put(pos, RoaringBitmap.decode(ByteBuffer.wrap(encoded)));
+    }
+
+    /**
+     * Read the file unless it has been read already, building bitmaps for
+     * every selected commit if it does not exist
+     */
+    private static void load() {
+        if (bitmaps != null) {
+            return;
+        }
+        bitmaps = new HashMap<Integer, RoaringBitmap>();
+        if (!BITMAP_FILE.exists()) {
+            Transaction.writeContents(BITMAP_FILE, (Object) new byte[0]);
+            /* Positions ascend, so each bitmap builds on the ones before it
+               and each commit is selected as it was when it was added. */
+            for (int pos = 0; pos < CommitGraph.size(); pos++) {
+                if (isSelected(pos)) {
+                    store(pos);
+                }
+            }
+            return;
+        }
+        ByteBuffer data = ByteBuffer.wrap(Utils.readContents(BITMAP_FILE));
+        byte[] raw = new byte[ID_BYTES];
+        int valid = 0;
+        while (data.remaining() >= HEADER_LENGTH) {
+            int pos = data.getInt();
+            data.get(raw);
+            int length = data.getInt();
+            if (data.remaining() < length) {
+                break;
+            }
+            valid = data.position() + length;
+            /* Skip a bitmap whose commit did not make it into the graph. */
+            if (pos < CommitGraph.size() && CommitGraph.idAt(pos).equals(bytesToHex(raw))) {
+                bitmaps.put(pos, RoaringBitmap.decode(data));
+            }
+            data.position(valid);
+        }
+        if (valid < data.limit()) {
+            /* Drop a record cut off by a crash, so new ones line up. */
+            try (RandomAccessFile file = new RandomAccessFile(BITMAP_FILE, "rw")) {
+                file.setLength(valid);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+}
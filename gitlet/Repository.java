@@ -1,6 +1,12 @@
 package gitlet;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.*;
@@ -11,13 +17,28 @@ import static gitlet.GitUtils.*;
  *  Structure:
  * .gitlet
  *    |-- objects: Store commit and blob using hash value
- *    |      |-- commit
- *    |      |-- blob
+ *    |      |-- xx: fan-out directory named by the first two digits of the id
+ *    |      |    |-- commit
+ *    |      |    |-- tree: files and subdirectories of one directory
+ *    |      |    |-- blob
+ *    |      |-- index: sorted list of all loose object ids
+ *    |      |-- pack: packfiles holding objects moved out of the fan-out directories
  *    |-- refs
  *    |    |-- heads
  *    |         |-- master: "main" branch
  *    |         |-- branch #
  *    |-- HEAD_FILE: contains a branch name(String) Point to the current branch
+ *    |-- config: settings changed with the config command
+ *    |-- commit-graph: parents and generation number of every commit
+ *    |-- message-index: commit ids by message, word and trigram, for find
+ *    |-- message-log: entries of recent commits not yet merged into message-index
+ *    |-- bitmaps: ancestors of selected commits, for ancestry queries
+ *    |-- stat-cache: size, modification time and blob id of tracked files, for status
+ *    |-- watch: paths changed in the working directory, logged by the watch command
+ *    |-- overwritten: tracked files gitlet wrote with another version than HEAD's,
+ *    |                rewritten by the next checkout of a branch or reset
+ *    |-- journal: old versions of the files changed by the running command,
+ *    |            put back if it is interrupted (see Transaction)
  *    |-- add_stage
  *    |-- remove_stage
  *
@@ -37,13 +58,29 @@ public class Repository {
     /** The .gitlet directory. */
     public static final File GITLET_DIR = join(CWD, ".gitlet");
     public static final File OBJECT_DIR = join(GITLET_DIR, "objects");
+    public static final File OBJECT_INDEX_FILE = join(OBJECT_DIR, "index");
+    public static final File PACK_DIR = join(OBJECT_DIR, "pack");
     public static final File REF_DIR = join(GITLET_DIR, "ref");
     public static final File HEADS_DIR = join(REF_DIR, "heads");
     public static final File HEAD_FILE = join(GITLET_DIR, "HEAD");
     public static final File ADDSTAGE_FILE = join(GITLET_DIR, "add_stage");
     public static final File REMOVESTAGE_FILE = join(GITLET_DIR, "remove_stage");
+    public static final File CONFIG_FILE = join(GITLET_DIR, "config");
+    public static final File JOURNAL_DIR = join(GITLET_DIR, "journal");
+    public static final File COMMIT_GRAPH_FILE = join(GITLET_DIR, "commit-graph");
+    public static final File MESSAGE_INDEX_FILE = join(GITLET_DIR, "message-index");
+    public static final File MESSAGE_LOG_FILE = join(GITLET_DIR, "message-log");
+    public static final File BITMAP_FILE = join(GITLET_DIR, "bitmaps");
+    public static final File STAT_CACHE_FILE = join(GITLET_DIR, "stat-cache");
+    public static final File WATCH_DIR = join(GITLET_DIR, "watch");
+    public static final File OVERWRITTEN_FILE = join(GITLET_DIR, "overwritten");
+
+    /** Commits printed by log between checks that output can still be written. */
+    private static final int LOG_PAGE_SIZE = 64;
+    private static final int LOG_BUFFER_SIZE = 1 << 16;
 
     private static Commit commit;
+    private static long printedCommits;
     private static Stage addStage = new Stage();
     private static Stage removeStage = new Stage();
 
@@ -53,7 +90,7 @@ public class Repository {
         if (GITLET_DIR.exists()) {
             System.out.println("A Gitlet version-control system "
                     + "already exists in the current directory.");
-            System.exit(0);
+            exit(0);
         }
         mkdir(GITLET_DIR);
         mkdir(OBJECT_DIR);
@@ -67,7 +104,43 @@ public class Repository {
     public static void checkInit() {
         if (!GITLET_DIR.exists()) {
             System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            exit(0);
+        }
+        Transaction.recover();
+        if (!OBJECT_INDEX_FILE.exists()) {
+            System.out.println("This repository was created by an older version of Gitlet; "
+                    + "run migrate to upgrade it.");
+            exit(0);
+        }
+    }
+
+    /**
+     * Implement migrate command
+     *
+     * Upgrades a repository written by an older version of Gitlet. Objects
+     * stored directly in the objects directory are moved into fan-out
+     * directories, and every object and both stage files are rewritten in
+     * the binary format of {@link ObjectCodec}. Commits written before trees
+     * existed get their trees stored. Packed objects are unpacked in the
+     * process; run repack afterwards to pack them again.
+     */
+    public static void migrate() {
+        if (!GITLET_DIR.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            exit(0);
+        }
+        Transaction.recover();
+        File scratchDir = join(GITLET_DIR, "migrate");
+        if (!scratchDir.exists()) {
+            mkdir(scratchDir);
+        }
+        ObjectStore.migrate(scratchDir);
+        scratchDir.delete();
+        if (ADDSTAGE_FILE.exists()) {
+            readAddStage().saveAddStage();
+        }
+        if (REMOVESTAGE_FILE.exists()) {
+            readRemoveStage().saveRemoveStage();
         }
     }
 
@@ -85,38 +158,70 @@ public class Repository {
      */
     private static void initHead() {
         File headsFile = join(HEADS_DIR, "master");
-        writeContents(headsFile, commit.getId());
+        Transaction.writeContents(headsFile, commit.getId());
     }
 
     /**
      * initialize a head pointer to the master branch
      */
     private static void initHeadPointer() {
-        writeContents(HEAD_FILE, "master");
+        Transaction.writeContents(HEAD_FILE, "master");
     }
 
     /**
-     * Adds a file to the version control system by creating a Blob object and storing it.
+     * Adds files to the version control system by creating Blob objects and storing them.
      *
      * <p>This method performs the following operations:
      * <ul>
-     *   <li>Gets the File object for the specified file path.</li>
-     *   <li>Checks if the file exists. If not, prints an error message and exits.</li>
-     *   <li>Creates a Blob object from the file.</li>
-     *   <li>Stores the Blob using the storeBlob method.</li>
+     *   <li>Finds the files named by the arguments, see {@link Pathspec}. If an
+     *   argument names no file, prints an error message and exits.</li>
+     *   <li>Reads both stages and the current commit once.</li>
+     *   <li>Hashes the files in parallel, skipping files unchanged since they
+     *   were last hashed, see {@link StatCache}.</li>
+     *   <li>Stores each Blob using the storeBlob method, then writes the
+     *   stages once.</li>
      * </ul>
      * </p>
      *
-     * @param file the path of the file to be added
-     */
-    public static void add(String file) {
-        File fileToAdd = getFile(file);
-        if (!fileToAdd.exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
+     * @param args paths, directories or glob patterns of the files to be added
+     */
+    public static void add(String[] args) {
+        List<String> workingFiles = null;
+        Set<String> paths = new TreeSet<String>();
+        for (String arg : args) {
+            File fileToAdd = getFile(arg);
+            if (fileToAdd.isFile()) {
+                paths.add(fileToAdd.getPath());
+                continue;
+            }
+            if (workingFiles == null) {
+                workingFiles = WorkingTree.listFiles();
+            }
+            List<String> matches = Pathspec.match(arg, workingFiles);
+            if (matches.isEmpty()) {
+                System.out.println("File does not exist.");
+                exit(0);
+            }
+            paths.addAll(matches);
         }
-        Blob blob = new Blob(fileToAdd);
-        storeBlob(blob);
+        addStage = readAddStage();
+        removeStage = readRemoveStage();
+        commit = readCommit();
+        Map<String, String> ids = StatCache.blobIds(paths);
+        boolean changed = false;
+        for (String path : paths) {
+            String id = ids.get(path);
+            if (id == null) {
+                System.out.println("File does not exist.");
+                exit(0);
+            }
+            changed |= storeBlob(new Blob(new File(path), id));
+        }
+        if (changed) {
+            addStage.saveAddStage();
+            removeStage.saveRemoveStage();
+        }
+        StatCache.save();
     }
 
     /**
@@ -139,27 +244,32 @@ public class Repository {
 
     /**
      * Stores a blob in the appropriate stage area based on its current state.
+     * A newly staged blob is saved as a delta against the version of the same
+     * file in the current commit, if there is one. Blobs are named by their
+     * content, so nothing is written if the same content is already stored,
+     * e.g. under another path. The stages and current commit must have been
+     * read, and the caller writes the stages.
      * @param blob the {@code Blob} object to be stored
+     * @return true if a stage changed
      */
-    public static void storeBlob(Blob blob) {
-        addStage = readAddStage();
-        removeStage = readRemoveStage();
-        commit = readCommit();
-        if (!commit.getBlobRef().containsValue(blob.getId()) || removeStage.containsBlob(blob)) {
-            if (!addStage.containsBlob(blob)) {
-                if (!removeStage.containsBlob(blob)) {
-                    blob.save();
-                    if (addStage.containsFilePath(blob.getBlobPath())) {
-                        addStage.delete(blob);
-                    }
-                    addStage.add(blob);
-                    addStage.saveAddStage();
-                } else {
-                    removeStage.delete(blob);
-                    removeStage.saveRemoveStage();
-                }
-            }
+    private static boolean storeBlob(Blob blob) {
+        String trackedId = commit.getBlobRef().get(blob.getBlobPath());
+        if (blob.getId().equals(trackedId) && !removeStage.containsBlob(blob)
+                || addStage.containsBlob(blob)) {
+            return false;
+        }
+        if (removeStage.containsBlob(blob)) {
+            removeStage.delete(blob);
+            return true;
         }
+        if (!ObjectStore.contains(blob.getId())) {
+            blob.save(trackedId);
+        }
+        if (addStage.containsFilePath(blob.getBlobPath())) {
+            addStage.delete(blob);
+        }
+        addStage.add(blob);
+        return true;
     }
 
     /**
@@ -193,8 +303,7 @@ public class Repository {
      */
     private static Commit readCommit() {
         String currCommitId = getCurrCommitId();
-        File currCommitFile = join(OBJECT_DIR, currCommitId);
-        return readObject(currCommitFile, Commit.class);
+        return ObjectStore.read(currCommitId, Commit.class);
     }
 
     /**
@@ -224,7 +333,7 @@ public class Repository {
     public static void commit(String message) {
         if (message.length() == 0) {
             System.out.println("Please enter a commit message.");
-            System.exit(0);
+            exit(0);
         }
         Commit newCommit = createCommit(message);
         saveCommit(newCommit);
@@ -239,10 +348,10 @@ public class Repository {
         Map<String, String> removeStageBlob = getRemoveStageBlobMap();
         checkIfStageEmpty(addStageBlob, removeStageBlob);
         commit = readCommit();
-        Map<String, String> newBlobMap = commit.getBlobRef();
-        newBlobMap = createBlobMap(newBlobMap, addStageBlob, removeStageBlob);
+        Map<String, String> changes = createTreeChanges(addStageBlob, removeStageBlob);
+        String tree = commit.updateTree(changes);
         List<String> parents = findParents();
-        return new Commit(message, newBlobMap, parents);
+        return new Commit(message, tree, parents);
     }
 
     /**
@@ -263,13 +372,8 @@ public class Repository {
      * @return blob in add stage
      */
     private static Map<String, String> getAddStageBlobMap() {
-        Map<String, String> addStageBlobMap = new HashMap<String, String>();
         addStage = readAddStage();
-        List<Blob> addBlobList = addStage.getBlobList();
-        for (Blob blob : addBlobList) {
-            addStageBlobMap.put(blob.getBlobPath(), blob.getId());
-        }
-        return addStageBlobMap;
+        return new HashMap<String, String>(addStage.getBlobMap());
     }
 
     /**
@@ -277,13 +381,8 @@ public class Repository {
      * @return blob in remove stage
      */
     private static Map<String, String> getRemoveStageBlobMap() {
-        Map<String, String> removeStageBlobMap = new HashMap<String, String>();
         removeStage = readRemoveStage();
-        List<Blob> removeBlobList = removeStage.getBlobList();
-        for (Blob blob : removeBlobList) {
-            removeStageBlobMap.put(blob.getBlobPath(), blob.getId());
-        }
-        return removeStageBlobMap;
+        return new HashMap<String, String>(removeStage.getBlobMap());
     }
 
     /**
@@ -296,7 +395,7 @@ public class Repository {
                                           Map<String, String> removeStageBlobMap) {
         if (addStageBlobMap.isEmpty() && removeStageBlobMap.isEmpty()) {
             System.out.println("No changes added to the commit.");
-            System.exit(0);
+            exit(0);
         }
     }
 
@@ -312,28 +411,21 @@ public class Repository {
     }
 
     /**
-     * Create blob map for current commits, add all blob in add stage
-     * and remove stage to the copy of blob of current commit
+     * Create the changes the new commit makes to the tree of the current
+     * commit: every blob in add stage, and a removal for every path in
+     * remove stage. Only the trees along these paths are rewritten.
      *
-     * @param newBlobMap blob map of new commit
      * @param addBlobMap blob map of add stage
      * @param removeBlobMap blob map of remove stage
+     * @return path to new blob id, or to null for a removed path
      */
-    private static Map<String, String> createBlobMap(Map<String, String> newBlobMap,
-                                                    Map<String, String> addBlobMap,
-                                                    Map<String, String> removeBlobMap) {
-        if (!addBlobMap.isEmpty()) {
-            for (String path : addBlobMap.keySet()) {
-                newBlobMap.put(path, addBlobMap.get(path));
-            }
-        }
-
-        if (!removeBlobMap.isEmpty()) {
-            for (String path : removeBlobMap.keySet()) {
-                newBlobMap.remove(path);
-            }
+    private static Map<String, String> createTreeChanges(Map<String, String> addBlobMap,
+                                                         Map<String, String> removeBlobMap) {
+        Map<String, String> changes = new HashMap<String, String>(addBlobMap);
+        for (String path : removeBlobMap.keySet()) {
+            changes.put(path, null);
         }
-        return newBlobMap;
+        return changes;
     }
 
     /**
@@ -345,7 +437,7 @@ public class Repository {
         commit = newCommit;
         String currentBranch = readCurrentBranch();
         File headFile = join(HEADS_DIR, currentBranch);
-        writeContents(headFile, commit.getId());
+        Transaction.writeContents(headFile, commit.getId());
     }
 
     /**
@@ -357,121 +449,105 @@ public class Repository {
     }
 
     /**
-     * Implement rm command, remove the target file
-     * @param fileName of target file to remove
+     * Implement rm command, remove the target files
+     * Every argument must name a file staged or tracked, see {@link Pathspec};
+     * otherwise nothing is removed. The stages are written once.
+     * @param args paths, directories or glob patterns of target files to remove
      */
-    public static void rm(String fileName) {
-        File file = getFile(fileName);
-        String filePath = file.getPath();
+    public static void rm(String[] args) {
         addStage = readAddStage();
+        removeStage = readRemoveStage();
         commit = readCommit();
-
-        if (addStage.contains(filePath)) {
-            addStage.delete(filePath);
+        Set<String> known = new HashSet<String>(commit.getBlobRef().keySet());
+        known.addAll(addStage.getBlobMap().keySet());
+        Set<String> paths = new TreeSet<String>();
+        for (String arg : args) {
+            List<String> matches = Pathspec.match(arg, known);
+            if (matches.isEmpty()) {
+                System.out.println("No reason to remove the file.");
+                exit(0);
+            }
+            paths.addAll(matches);
+        }
+        boolean unstaged = false;
+        List<File> filesToDelete = new ArrayList<File>();
+        for (String filePath : paths) {
+            if (addStage.contains(filePath)) {
+                addStage.delete(filePath);
+                unstaged = true;
+            } else {
+                removeStage.add(filePath, commit.getBlobRef().get(filePath));
+                filesToDelete.add(new File(filePath));
+            }
+        }
+        if (unstaged) {
             addStage.saveAddStage();
-        } else if (commit.contains(filePath)) {
-            removeStage = readRemoveStage();
-            Blob removeBlob = getBlobFromPath(filePath, commit);
-            removeStage.add(removeBlob);
+        }
+        if (!filesToDelete.isEmpty()) {
             removeStage.saveRemoveStage();
+        }
+        for (File file : filesToDelete) {
             deleteFile(file);
-        } else {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
         }
     }
 
-    /**
-     * Get target blob through blob path in the target commit
-     * @param filePath of target blob
-     * @param currCommit target commit
-     */
-    private static Blob getBlobFromPath(String filePath, Commit currCommit) {
-        String blobID = currCommit.getBlobRef().get(filePath);
-        return getBlobFromId(blobID);
-    }
-
     /**
      * Get target blob file through id
      * @param blobId of target blob
      * @return target blob
      */
     public static Blob getBlobFromId(String blobId) {
-        File blobFile = join(OBJECT_DIR, blobId);
-        return readObject(blobFile, Blob.class);
+        return ObjectStore.read(blobId, Blob.class);
     }
 
     /**
      * Implement log command, print the log of commit tree
-     */
-    public static void log() {
-        commit = readCommit();
-        while (!commit.getParentId().isEmpty()) {
-            if (isMergedCommit(commit)) {
-                printMergedCommit(commit);
-            } else {
-                printCommit(commit);
+     *
+     * Starting at HEAD, the first parent is followed through the commit
+     * graph, and only the commits printed are read. Output is buffered and
+     * the walk stops as soon as it cannot be written, e.g. when piped into
+     * head, so the first page never waits for the whole history.
+     *
+     * @param args options, see {@link LogOptions}
+     */
+    public static void log(String[] args) {
+        LogOptions options = LogOptions.parse(args);
+        PrintWriter out = newLogWriter();
+        int pos = CommitGraph.positionOf(getCurrCommitId());
+        for (; pos != CommitGraph.NONE && !options.isDone(); pos = CommitGraph.firstParent(pos)) {
+            if (options.select(CommitGraph.timeAt(pos)) && !printCommit(out, pos)) {
+                return;
             }
-            commit = getCommitFromId(commit.getParentId().get(0));
         }
-        printCommit(commit);
+        out.flush();
     }
 
     /**
-     * Determine whether the commit is a merge commit
-     * a.k.a. it has two parents
-     * @param commitObj to verify
-     * @return boolean value
+     * Open a buffered writer on standard output for log and global-log
      */
-    private static boolean isMergedCommit(Commit commitObj) {
-        return commitObj.getParentId().size() == 2;
+    private static PrintWriter newLogWriter() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(FileDescriptor.out)), LOG_BUFFER_SIZE));
     }
 
     /**
-     * Print info of target commit
-     * @param commitObj target commit
+     * Print info of target commit, with the merge mark if it is a merge commit
+     * @param out writer to print to
+     * @param pos position of the commit in the commit graph
+     * @return false once output can no longer be written
      */
-    private static void printCommit(Commit commitObj) {
-        System.out.println("===");
-        printCommitID(commitObj);
-        printCommitDate(commitObj);
-        printCommitMessage(commitObj);
-    }
-
-    /**
-     * Print info of target merged commit
-     * @param commitObj target merged commit
-     */
-    private static void printMergedCommit(Commit commitObj) {
-        System.out.println("===");
-        printCommitID(commitObj);
-        printMergeMark(commitObj);
-        printCommitDate(commitObj);
-        printCommitMessage(commitObj);
-    }
-
-    /**
-     * Print commit id in log
-     * @param commitObj to be print in log
-     */
-    private static void printCommitID(Commit commitObj) {
-        System.out.println("commit " + commitObj.getId());
-    }
-
-    /**
-     * Print commit date in log
-     * @param commitObj to be print in log
-     */
-    private static void printCommitDate(Commit commitObj) {
-        System.out.println("Date: " + commitObj.getTimestamp());
-    }
-
-    /**
-     * Print commit message in log with an empty line
-     * @param commitObj to be print in log
-     */
-    private static void printCommitMessage(Commit commitObj) {
-        System.out.println(commitObj.getMessage() + "\n");
+    private static boolean printCommit(PrintWriter out, int pos) {
+        Commit commitObj = ObjectStore.read(CommitGraph.idAt(pos), Commit.class);
+        out.print("===\n");
+        out.print("commit " + commitObj.getId() + "\n");
+        int secondParent = CommitGraph.secondParent(pos);
+        if (secondParent != CommitGraph.NONE) {
+            printMergeMark(out, CommitGraph.idAt(CommitGraph.firstParent(pos)),
+                    CommitGraph.idAt(secondParent));
+        }
+        out.print("Date: " + commitObj.getTimestamp() + "\n");
+        out.print(commitObj.getMessage() + "\n\n");
+        return ++printedCommits % LOG_PAGE_SIZE != 0 || !out.checkError();
     }
 
     /**
@@ -480,88 +556,92 @@ public class Repository {
      * The first parent is the branch you were on when you did the merge;
      * The second is that of the merged-in branch.
      *
-     * @param commitObj to be print in log
+     * @param out writer to print to
+     * @param firstParent id of the first parent
+     * @param secondParent id of the second parent
      */
-    private static void printMergeMark(Commit commitObj) {
-        List<String> parentsList = commitObj.getParentId();
-        String p1 = parentsList.get(0).substring(0, 7);
-        String p2 = parentsList.get(1).substring(0, 7);
-        System.out.println("Merge: " + p1 + " " + p2);
+    private static void printMergeMark(PrintWriter out, String firstParent, String secondParent) {
+        out.print("Merge: " + firstParent.substring(0, 7) + " "
+                + secondParent.substring(0, 7) + "\n");
     }
 
     /**
      * Find target commit through commit id
      * Note that a convenient feature of real Git is that one can abbreviate
      * commits with a unique prefix, thus, there will be id whose length is less
-     * than 40, for this situation, we just traverse id of all file and find the file
-     * which has a prefix same with this id
+     * than 40, for this situation, we look the prefix up in the sorted object
+     * index. A prefix matching more than one object is reported as ambiguous.
      *
      * @param commitId id of target commit
      * @return target commit
      */
     private static Commit getCommitFromId(String commitId) {
-        if (commitId.length() == 40) {
-            File file = join(OBJECT_DIR, commitId);
-            return file.exists()
-                    ? readObject(file, Commit.class)
-                    : null;
-        } else {
-            List<String> idList = plainFilenamesIn(OBJECT_DIR);
-            for (String obj : idList) {
-                if (commitId.equals(obj.substring(0, commitId.length()))) {
-                    File file = join(OBJECT_DIR, obj);
-                    return readObject(file, Commit.class);
-                }
-            }
-            return null;
-        }
+        String fullId = ObjectStore.resolve(commitId, ObjectStore.COMMIT);
+        return fullId == null
+                ? null
+                : ObjectStore.read(fullId, Commit.class);
     }
 
     /**
      * Implement global-log command, list all commit history
-     */
-    public static void globalLog() {
-        List<String> commitList = plainFilenamesIn(OBJECT_DIR);
-        for (String id : commitList) {
-            try {
-                Commit curr = getCommitFromId(id);
-                if (isMergedCommit(curr)) {
-                    printMergedCommit(curr);
-                } else {
-                    printCommit(curr);
-                }
-            } catch (IllegalArgumentException e) {
-                System.out.println("Invalid commit id: " + e.getMessage());
-            } catch (NullPointerException e) {
-                System.out.println("Null reference: " + e.getMessage());
+     *
+     * Commits are listed from the commit graph, newest first, so nothing is
+     * scanned before the first commit is printed.
+     *
+     * @param args options, see {@link LogOptions}
+     */
+    public static void globalLog(String[] args) {
+        LogOptions options = LogOptions.parse(args);
+        PrintWriter out = newLogWriter();
+        for (int pos = CommitGraph.size() - 1; pos >= 0 && !options.isDone(); pos--) {
+            if (options.select(CommitGraph.timeAt(pos)) && !printCommit(out, pos)) {
+                return;
             }
         }
+        out.flush();
     }
 
     /**
      * Implement find command
      * Prints out the ids of all commits that have the given commit message
      * If there are multiple such commits, it prints the ids out on separate lines.
+     * Commits are looked up in the message index, so none are read except
+     * the ones found.
      *
      * @param message of target commits
      */
     public static void find(String message) {
-        List<String> commitList = plainFilenamesIn(OBJECT_DIR);
-        List<String> idList = new ArrayList<String>();
-        for (String id : commitList) {
-            try {
-                Commit curr = getCommitFromId(id);
-                if (message.equals(curr.getMessage())) {
-                    idList.add(id);
-                }
-            } catch (IllegalArgumentException e) {
-                //System.out.println(e.getMessage());
-                //System.exit(0);
-            } catch (NullPointerException e) {
-                System.out.println(e.getMessage());
-            }
+        printFound(MessageIndex.findMessage(message));
+    }
+
+    /**
+     * Implement find command with an option
+     * {@code --token} prints the commits whose message contains every word
+     * of TEXT, ignoring case, and {@code --substring} those whose message
+     * contains TEXT.
+     *
+     * @param option --token or --substring
+     * @param text to look for
+     */
+    public static void find(String option, String text) {
+        switch (option) {
+            case "--token":
+                printFound(MessageIndex.findTokens(text));
+                break;
+            case "--substring":
+                printFound(MessageIndex.findSubstring(text));
+                break;
+            default:
+                System.out.println("Incorrect operands.");
+                exit(0);
         }
+    }
 
+    /**
+     * Print the ids found by find, one per line
+     * @param idList sorted ids of the commits found
+     */
+    private static void printFound(Collection<String> idList) {
         if (idList.isEmpty()) {
             System.out.println("Found no commit with that message.");
         } else {
@@ -575,13 +655,18 @@ public class Repository {
      * Implement status command
      * Displays what branches currently exist, and marks the current branch with a *.
      * Also displays what files have been staged for addition or removal.
+     *
+     * With a running watcher, only the files changed since the last status
+     * are looked at, see {@link Watcher}.
      */
     public static void status() {
+        Watcher.Scan scan = Watcher.scan();
         printBranches();
         printStagedFiles();
         printRemovedFiles();
-        printModificationsNotStaged();
-        printUntrackedFiles();
+        printModificationsNotStaged(scan);
+        printUntrackedFiles(scan);
+        Watcher.save(scan);
     }
 
     /**
@@ -608,7 +693,7 @@ public class Repository {
     private static void printStagedFiles() {
         System.out.println("=== Staged Files ===");
         addStage = readAddStage();
-        for (Blob blob : addStage.getBlobList()) {
+        for (BlobInfo blob : addStage.getBlobInfoList()) {
             System.out.println(blob.getFileName());
         }
         System.out.println();
@@ -620,7 +705,7 @@ public class Repository {
     private static void printRemovedFiles() {
         System.out.println("=== Removed Files ===");
         removeStage = readRemoveStage();
-        for (Blob blob : removeStage.getBlobList()) {
+        for (BlobInfo blob : removeStage.getBlobInfoList()) {
             System.out.println(blob.getFileName());
         }
         System.out.println();
@@ -635,21 +720,82 @@ public class Repository {
      * - Staged for addition, but deleted in the working directory; or
      * - Not staged for removal, but tracked in the current commit and deleted from the
      *   working directory.
+     *
+     * @param scan files of the working directory and which of them changed
      */
-    private static void printModificationsNotStaged() {
+    private static void printModificationsNotStaged(Watcher.Scan scan) {
         System.out.println("=== Modifications Not Staged For Commit ===");
+        commit = readCommit();
+        Map<String, String> tracked = commit.getBlobRef();
+        Map<String, String> staged = addStage.getBlobMap();
+        Set<String> paths = new HashSet<String>(tracked.keySet());
+        paths.addAll(staged.keySet());
+        Set<String> workingFiles = new HashSet<String>(scan.getFiles());
+        Set<String> candidates = new HashSet<String>();
+        Map<String, String> actualIds = new HashMap<String, String>();
+        List<String> toHash = new ArrayList<String>();
+        for (String path : paths) {
+            if (!staged.containsKey(path) && removeStage.contains(path)) {
+                continue;
+            }
+            candidates.add(path);
+            if (workingFiles.contains(path)) {
+                String cachedId = scan.isUnchanged(path) ? StatCache.cachedId(path) : null;
+                if (cachedId != null) {
+                    actualIds.put(path, cachedId);
+                } else {
+                    toHash.add(path);
+                }
+            }
+        }
+        actualIds.putAll(StatCache.blobIds(toHash));
+        Map<String, String> modifications = new TreeMap<String, String>();
+        for (String path : candidates) {
+            String expectedId = staged.containsKey(path) ? staged.get(path) : tracked.get(path);
+            String actualId = actualIds.get(path);
+            if (actualId == null) {
+                modifications.put(toDisplayPath(path), "deleted");
+            } else if (!actualId.equals(expectedId)) {
+                modifications.put(toDisplayPath(path), "modified");
+            }
+        }
+        StatCache.retain(candidates);
+        StatCache.save();
+        for (Map.Entry<String, String> file : modifications.entrySet()) {
+            System.out.println(file.getKey() + " (" + file.getValue() + ")");
+        }
         System.out.println();
     }
 
     /**
      * Displays files present in the working directory but neither staged for addition nor tracked
+     * This includes files staged for removal but then re-created.
      *
+     * @param scan files of the working directory
      */
-    private static void printUntrackedFiles() {
+    private static void printUntrackedFiles(Watcher.Scan scan) {
         System.out.println("=== Untracked Files ===");
+        Map<String, String> tracked = commit.getBlobRef();
+        Set<String> untracked = new TreeSet<String>();
+        for (String path : scan.getFiles()) {
+            if (!addStage.contains(path) && (!tracked.containsKey(path) || removeStage.contains(path))) {
+                untracked.add(toDisplayPath(path));
+            }
+        }
+        for (String path : untracked) {
+            System.out.println(path);
+        }
         System.out.println();
     }
 
+    /**
+     * Convert an absolute path to the path relative to the working
+     * directory printed by status
+     */
+    private static String toDisplayPath(String path) {
+        return CWD.toPath().relativize(Paths.get(path)).toString();
+    }
+
     /**
      * Implement checkout command
      * Checkout is a kind of general command that can do a few different
@@ -674,25 +820,24 @@ public class Repository {
      */
     public static void checkout(String fileName) {
         commit = readCommit();
-        List<String> fileNameList = commit.getFileNameList();
-        if (fileNameList.contains(fileName)) {
-            Blob blob = commit.getBlobFromFileName(fileName);
-            putBlobInCWD(blob);
+        BlobInfo blob = commit.getBlobInfo(fileName);
+        if (blob != null) {
+            putBlobInCWD(fileName, blob.getId());
         } else {
             System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            exit(0);
         }
     }
 
     /**
-     * write blob to CWD, use writeContents method to write byte array
-     * to the blob file in CWD
-     * @param blob to write
+     * write blob to CWD. The content is moved from the object database to
+     * the file byte for byte, without heap copies where the blob is stored
+     * uncompressed, so neither the size nor the encoding of the file matters.
+     * @param fileName name of the file in CWD
+     * @param blobId id of the blob to write
      */
-    private static void putBlobInCWD(Blob blob) {
-        File file = join(CWD, blob.getFileName());
-        byte[] byteCode = blob.getBytes();
-        writeContents(file, new String(byteCode, StandardCharsets.UTF_8));
+    private static void putBlobInCWD(String fileName, String blobId) {
+        ObjectStore.restoreBlob(blobId, join(CWD, fileName));
     }
 
     /**
@@ -708,33 +853,43 @@ public class Repository {
         commit = getCommitFromId(id);
         if (commit == null) {
             System.out.println("No commit with that id exists.");
-            System.exit(0);
+            exit(0);
         }
-        List<String> fileNameList = commit.getFileNameList();
-        if (fileNameList.contains(fileName)) {
-            Blob blob = commit.getBlobFromFileName(fileName);
-            putBlobInCWD(blob);
+        BlobInfo blob = commit.getBlobInfo(fileName);
+        if (blob != null) {
+            putBlobInCWD(fileName, blob.getId());
+            recordOverwritten(join(CWD, fileName));
         } else {
             System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            exit(0);
         }
     }
 
+    /**
+     * Remember that FILE was written with another version than the one
+     * HEAD tracks, so that the next checkout of a branch or reset puts it
+     * back although the two commits agree on it
+     * @param file file in CWD
+     */
+    private static void recordOverwritten(File file) {
+        String path = CWD.toPath().relativize(file.toPath()).toString();
+        Transaction.append(OVERWRITTEN_FILE, (path + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
     /**
      * Case 3: checkout [branch name]
-     * Takes all files in the commit at the head of the given branch,
-     * and puts them in the working directory, overwriting the versions of the files
-     * that are already there if they exist. Also, at the end of this command,
-     * the given branch will now be considered the current branch (HEAD).
-     * Any files that are tracked in the current branch but are not present in the
-     * checked-out branch are deleted. The staging area is cleared,
-     * unless the checked-out branch is the current branch
+     * Makes the working directory match the commit at the head of the given
+     * branch and makes that branch the current branch (HEAD). Only the
+     * files which differ between the two commits are deleted or written,
+     * see {@link #switchToNewCommit}. The staging area is cleared.
      *
      * <ul>
-     * <li>If a working file is untracked in the current branch and would be overwritten
-     * by the checkout, print There is an untracked file in the way; delete it, or add and
-     * commit it first. and exit;</li> TODO
-     * <li>perform this check before doing anything else. Do not change the CWD.</li>
+     * <li>If the given branch does not exist, or is the current branch,
+     * print a message and exit.</li>
+     * <li>If a working file is untracked in the current branch and would be
+     * overwritten by the checkout, print There is an untracked file in the
+     * way; delete it, or add and commit it first. and exit. This check is
+     * made before the working directory is changed.</li>
      * </ul>
      * @param branchName given branch
      */
@@ -758,7 +913,7 @@ public class Repository {
         List<String> branchList = plainFilenamesIn(HEADS_DIR);
         if (!branchList.contains(branchName)) {
             System.out.println("No such branch exists.");
-            System.exit(0);
+            exit(0);
         }
     }
 
@@ -771,7 +926,7 @@ public class Repository {
         String currentBranch = readCurrentBranch();
         if (branchName.equals(currentBranch)) {
             System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            exit(0);
         }
     }
 
@@ -787,123 +942,95 @@ public class Repository {
     }
 
     /**
-     * Puts all files tracked by new commit in the working directory, overwriting
-     * the versions of the files that are already there if they exist.(tracked by both commit)
-     * Delete all files only tracked by current commit
+     * Puts all files tracked by new commit in the working directory. Only the
+     * entries of the diff between the two commits are touched: files only
+     * tracked by the new commit or tracked by both with another version are
+     * written, files only tracked by current commit are deleted, so the cost
+     * does not grow with the files the commits share. Those are left as they
+     * are, local changes included, except the ones gitlet itself overwrote
+     * (see {@link #recordOverwritten}), which are written again. The files
+     * written get fresh stat cache entries.
      * Clear all files in stage
      * @param newCommit to check out
      */
     private static void switchToNewCommit(Commit newCommit) {
-        List<String> filesTrackedByCurrentCommit = getFilesTrackedByCurrentCommit(newCommit);
-        List<String> filesTrackedByBothCommit = getFilesTrackedByBothCommit(newCommit);
-        List<String> filesTrackedByNewCommit = getFilesTrackedByNewCommit(newCommit);
-
-        //System.out.println("D" + getFileNameFromBlobId(filesTrackedByCurrentCommit).toString());
-        //System.out.println("O" + getFileNameFromBlobId(filesTrackedByNewCommit).toString());
-        //System.out.println("W" + filesTrackedByBothCommit.toString());
+        ManifestDiff diff = ManifestDiff.between(commit, newCommit);
 
-        deleteFiles(filesTrackedByCurrentCommit);
-        overwriteFiles(filesTrackedByBothCommit, newCommit);
-        writeFiles(filesTrackedByNewCommit, newCommit);
-        clearStage();
-    }
-
-    /**
-     * Get files that are only tracked in the current commit
-     * @param newCommit to check out
-     * @return list of files
-     */
-    private static List<String> getFilesTrackedByCurrentCommit(Commit newCommit) {
-        List<String> checkoutCommitFile = newCommit.getFileNameList();
-        List<String> currentCommitFile = commit.getFileNameList();
-        for (String fileName : checkoutCommitFile) {
-            currentCommitFile.remove(fileName);
+        checkUntrackedFiles(getFiles(diff.getAdded().keySet()),
+                getFiles(diff.getRemoved().keySet()));
+        Map<File, String> filesToWrite = new HashMap<File, String>();
+        for (Map.Entry<String, String> file : diff.getModified().entrySet()) {
+            filesToWrite.put(join(CWD, file.getKey()), file.getValue());
         }
-        return currentCommitFile;
-    }
-
-
-    /**
-     * Get files that are only tracked in the checked-out commit
-     * @param newCommit to check out
-     * @return list of files
-     */
-    private static List<String> getFilesTrackedByNewCommit(Commit newCommit) {
-        List<String> checkoutCommitFile = newCommit.getFileNameList();
-        List<String> currentCommitFile = commit.getFileNameList();
-        for (String fileName : currentCommitFile) {
-            checkoutCommitFile.remove(fileName);
+        for (Map.Entry<String, String> file : diff.getAdded().entrySet()) {
+            filesToWrite.put(join(CWD, file.getKey()), file.getValue());
         }
-        return checkoutCommitFile;
-    }
-
-    /**
-     * Any files that are tracked in both current branch and checked-out commit
-     * @param newCommit to check out
-     * @return list of files
-     */
-    private static List<String> getFilesTrackedByBothCommit(Commit newCommit) {
-        List<String> checkoutCommitFile = newCommit.getFileNameList();
-        List<String> currentCommitFile = commit.getFileNameList();
-        List<String> unionCommit = new ArrayList<String>();
-        for (String fileName : currentCommitFile) {
-            if (checkoutCommitFile.contains(fileName)) {
-                unionCommit.add(fileName);
+        if (OVERWRITTEN_FILE.exists()) {
+            for (String path : readContentsAsString(OVERWRITTEN_FILE).split("\n")) {
+                BlobInfo blob = path.isEmpty() ? null : newCommit.getBlobInfo(path);
+                if (blob != null) {
+                    filesToWrite.putIfAbsent(join(CWD, path), blob.getId());
+                }
             }
+            Transaction.delete(OVERWRITTEN_FILE);
+        }
+        CheckoutWriter.apply(getFiles(diff.getRemoved().keySet()),
+                filesToWrite);
+        for (Map.Entry<File, String> file : filesToWrite.entrySet()) {
+            StatCache.record(file.getKey(), file.getValue());
         }
-        return unionCommit;
+        clearStage();
+        StatCache.save();
     }
 
     /**
-     * Delete files tracked by current commit
-     * @param filesToDelete files to be deleted
+     * Get the files at the given paths, absolute or relative to CWD
+     * @param paths paths of the files
+     * @return list of files
      */
-    private static void deleteFiles(List<String> filesToDelete) {
-        if (filesToDelete.isEmpty()) {
-            return;
-        }
-        for (String fileName : filesToDelete) {
-            File file = join(CWD, fileName);
-            restrictedDelete(file);
+    private static List<File> getFiles(Collection<String> paths) {
+        List<File> files = new ArrayList<File>();
+        for (String path : paths) {
+            files.add(getFile(path));
         }
+        return files;
     }
 
     /**
-     * Overwrite all files tracked by both commit and put
-     * the files in the CWD
-     * @param filesToOverwrite files to be over write
-     * @param newCommit to be operated
+     * Get the blob of each of the given files in the new commit, to be
+     * written to CWD by {@link CheckoutWriter}
+     * @param paths absolute paths of the files to write
+     * @param newCommit commit holding the versions to write
+     * @return blob id by file
      */
-    private static void overwriteFiles(List<String> filesToOverwrite, Commit newCommit) {
-        if (filesToOverwrite.isEmpty()) {
-            return;
-        }
-        for (String fileName : filesToOverwrite) {
-            Blob blob = newCommit.getBlobFromFileName(fileName);
-            putBlobInCWD(blob);
+    private static Map<File, String> getFilesToWrite(List<String> paths, Commit newCommit) {
+        Map<File, String> filesToWrite = new HashMap<File, String>();
+        for (String path : paths) {
+            filesToWrite.put(new File(path), newCommit.getBlobRef().get(path));
         }
+        return filesToWrite;
     }
 
     /**
-     * Write all files tracked only by new commit and put them in CWD
-     * check ff a working file is untracked in the current branch and
-     * would be overwritten by the checkout before overwriting
-     * @param filesToWrite files tracked only by new commit
-     * @param newCommit to overwrite
+     * Check if a working file is untracked in the current branch and
+     * would be overwritten, before anything in CWD is changed. A directory
+     * is only in the way if it holds a file which is not deleted.
+     * @param filesToWrite files tracked only by the commit to write
+     * @param deletions files which are deleted before any is written
      */
-    private static void writeFiles(List<String> filesToWrite, Commit newCommit) {
-        if (filesToWrite.isEmpty()) {
-            return;
+    private static void checkUntrackedFiles(List<File> filesToWrite, List<File> deletions) {
+        Set<String> deleted = new HashSet<String>();
+        for (File file : deletions) {
+            deleted.add(file.getPath());
         }
-        for (String fileName : filesToWrite) {
-            File file = join(CWD, fileName);
-            if (file.exists()) {
+        for (File file : filesToWrite) {
+            if (file.isDirectory() ? !deleted.containsAll(WorkingTree.listFiles(file))
+                    : file.exists()) {
                 System.out.println("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
-                System.exit(0);
+                exit(0);
             }
         }
-        overwriteFiles(filesToWrite, newCommit);
     }
 
     /**
@@ -923,7 +1050,7 @@ public class Repository {
      * @param branchName given branch name of target branch
      */
     private static void switchToNewBranch(String branchName) {
-        writeContents(HEAD_FILE, branchName);
+        Transaction.writeContents(HEAD_FILE, branchName);
     }
 
     /**
@@ -941,11 +1068,107 @@ public class Repository {
         List<String> allBranches = plainFilenamesIn(HEADS_DIR);
         if (allBranches.contains(branchName)) {
             System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            exit(0);
         }
         commit = readCommit();
         File newBranch = join(HEADS_DIR, branchName);
-        writeContents(newBranch, commit.getId());
+        Transaction.writeContents(newBranch, commit.getId());
+    }
+
+    /**
+     * Implement branch --contains command
+     *
+     * Prints every branch whose head has the given commit in its history,
+     * marking the current branch with a *.
+     *
+     * @param name commit id, possibly abbreviated, or branch name
+     */
+    public static void branchContains(String name) {
+        Commit target = resolveCommit(name);
+        String currentBranch = getCurrBranch();
+        for (String branch : plainFilenamesIn(HEADS_DIR)) {
+            if (isAncestor(target, getCommitFromBranchName(branch))) {
+                System.out.println(branch.equals(currentBranch) ? "*" + branch : branch);
+            }
+        }
+    }
+
+    /**
+     * Implement merge-base command
+     *
+     * Prints the best common ancestors of two commits, one per line. There
+     * is more than one only in criss-cross histories.
+     *
+     * @param first commit id or branch name
+     * @param second commit id or branch name
+     */
+    public static void mergeBase(String first, String second) {
+        List<Integer> bases = CommitGraph.mergeBases(
+                CommitGraph.positionOf(resolveCommit(first).getId()),
+                CommitGraph.positionOf(resolveCommit(second).getId()));
+        for (int base : bases) {
+            System.out.println(CommitGraph.idAt(base));
+        }
+    }
+
+    /**
+     * Implement merge-base --is-ancestor command
+     *
+     * Prints nothing; like Git, the exit status is 0 if the first commit is
+     * an ancestor of the second, or the same commit, and 1 otherwise, so
+     * scripts can test it directly.
+     *
+     * @param first commit id or branch name of the possible ancestor
+     * @param second commit id or branch name of the possible descendant
+     */
+    public static void mergeBaseIsAncestor(String first, String second) {
+        Commit ancestor = findCommit(first);
+        Commit descendant = findCommit(second);
+        if (ancestor == null || descendant == null) {
+            /* Not a yes: a script must not take a typo for an ancestor. */
+            System.out.println("No commit with that id exists.");
+            exit(1);
+        }
+        if (!isAncestor(ancestor, descendant)) {
+            exit(1);
+        }
+    }
+
+    /**
+     * Determine whether ANCESTOR is in the history of DESCENDANT
+     */
+    private static boolean isAncestor(Commit ancestor, Commit descendant) {
+        return ReachabilityBitmaps.isAncestor(CommitGraph.positionOf(ancestor.getId()),
+                CommitGraph.positionOf(descendant.getId()));
+    }
+
+    /**
+     * Find the commit named by a branch name or a possibly abbreviated id
+     * If neither matches, print No commit with that id exists. and exit.
+     *
+     * @param name branch name or commit id
+     * @return commit
+     */
+    private static Commit resolveCommit(String name) {
+        Commit target = findCommit(name);
+        if (target == null) {
+            System.out.println("No commit with that id exists.");
+            exit(0);
+        }
+        return target;
+    }
+
+    /**
+     * Find the commit named by a branch name or a possibly abbreviated id
+     *
+     * @param name branch name or commit id
+     * @return commit, or null if there is none
+     */
+    private static Commit findCommit(String name) {
+        if (plainFilenamesIn(HEADS_DIR).contains(name)) {
+            return getCommitFromBranchName(name);
+        }
+        return getCommitFromId(name);
     }
 
     /**
@@ -966,15 +1189,15 @@ public class Repository {
         List<String> branchList = plainFilenamesIn(HEADS_DIR);
         if (branchName.equals(currentBranch)) {
             System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            exit(0);
         }
         if (!branchList.contains(branchName)) {
             System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            exit(0);
         }
         File file = join(HEADS_DIR, branchName);
         if (!file.isDirectory()) {
-            file.delete();
+            Transaction.delete(file);
         }
     }
 
@@ -994,12 +1217,83 @@ public class Repository {
         Commit newCommit = getCommitFromId(commitId);
         if (newCommit == null) {
             System.out.println("No commit with that id exists.");
-            System.exit(0);
+            exit(0);
         }
         commit = readCommit();
         switchToNewCommit(newCommit);
         File branchFile = join(HEADS_DIR, getCurrBranch());
-        writeContents(branchFile, commitId);
+        Transaction.writeContents(branchFile, newCommit.getId());
+    }
+
+    /**
+     * Implement repack command
+     *
+     * Moves all loose objects into a single new packfile with a sorted index,
+     * so a long history no longer costs one file per commit and blob.
+     * Objects stay readable through the same ids afterwards.
+     */
+    public static void repack() {
+        ObjectStore.repack();
+    }
+
+    /**
+     * Implement watch command
+     *
+     * Starts a watcher in the background, logging the paths changed in the
+     * working directory until it is stopped, so status only looks at those.
+     * With --stop, stops the running watcher instead. See {@link Watcher}.
+     *
+     * @param stop whether to stop the running watcher
+     */
+    public static void watch(boolean stop) {
+        if (stop) {
+            Watcher.stop();
+        } else {
+            Watcher.start();
+        }
+    }
+
+    /**
+     * Implement watch --foreground command
+     *
+     * Runs the watcher in this process until it is stopped.
+     */
+    public static void watchInForeground() {
+        Watcher.run();
+    }
+
+    /**
+     * Implement config command
+     *
+     * Prints the value of the setting KEY, or nothing if it is unset.
+     * See {@link Config} for the settings.
+     *
+     * @param key name of the setting
+     */
+    public static void config(String key) {
+        String value = Config.get(key, null);
+        if (value != null) {
+            System.out.println(value);
+        }
+    }
+
+    /**
+     * Implement config command
+     *
+     * Changes the setting KEY to VALUE. For example, {@code config chunking
+     * true} stores files of at least {@code chunking.minFileSize} bytes as
+     * lists of content-defined chunks from then on. A value a setting does
+     * not take, such as {@code config durability paranoia}, is refused.
+     *
+     * @param key name of the setting
+     * @param value new value
+     */
+    public static void config(String key, String value) {
+        if (!Config.isValid(key, value)) {
+            System.out.println("Invalid value for " + key + ".");
+            exit(0);
+        }
+        Config.set(key, value);
     }
 
     /**
@@ -1023,13 +1317,14 @@ public class Repository {
         checkTargetBranch(targetBranch);
         checkMergeWithItself(targetBranch);
         commit = readCommit();
+        Commit head = commit;
         Commit mergeCommit = getCommitFromBranchName(targetBranch);
-        Commit split = getSplitPoint(commit, mergeCommit);
-        checkIfInCurrBranch(split, targetBranch);
-        checkIfInGivenBranch(split, targetBranch);
+        checkIfInCurrBranch(mergeCommit, targetBranch);
+        checkIfInGivenBranch(mergeCommit, head);
+        Commit split = getSplitPoint(head, mergeCommit);
 
         /* Get construct new merged commit */
-        Map<String, String> currentBlobList = commit.getBlobRef();
+        Map<String, String> currentBlobList = new HashMap<String, String>(commit.getBlobRef());
         String message = "Merged " + targetBranch + " into " + currentBranch + ".";
         String currCommitId = getCommitFromBranchName(currentBranch).getId();
         String mergeCommitId = getCommitFromBranchName(targetBranch).getId();
@@ -1049,7 +1344,7 @@ public class Repository {
         removeStage = readRemoveStage();
         if (!(addStage.isEmpty() && removeStage.isEmpty())) {
             System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            exit(0);
         }
     }
 
@@ -1057,7 +1352,7 @@ public class Repository {
         List<String> branchList = plainFilenamesIn(HEADS_DIR);
         if (!branchList.contains(branchName)) {
             System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            exit(0);
         }
     }
 
@@ -1068,62 +1363,30 @@ public class Repository {
     private static void checkMergeWithItself(String branchName) {
         if (getCurrBranch().equals(branchName)) {
             System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            exit(0);
         }
     }
 
     /**
-     * Get split point(merged commit) of two given commit
+     * Get split point(merged commit) of two given commit, their latest
+     * common ancestor. If a criss-cross history gives several equally good
+     * ones, the one with the highest generation, and then the most recent,
+     * is used.
      * @param commit1
      * @param commit2
      * @return split point
      */
     private static Commit getSplitPoint(Commit commit1, Commit commit2) {
-        Map<String, Integer> commitMap1 = getCommitMap(commit1, 0);
-        Map<String, Integer> commitMap2 = getCommitMap(commit2, 0);
-        return getSplitPointFromMap(commitMap1, commitMap2);
-    }
-
-    /**
-     * Find a map of commit of a given commit
-     * Traverse all parents of current commit and put their parents recursively
-     * @param commitObj to search
-     * @return commit map
-     */
-    private static Map<String, Integer> getCommitMap(Commit commitObj, int count) {
-        Map<String, Integer> commitMap = new HashMap<String, Integer>();
-        if (commitObj.getParentId().isEmpty()) {
-            commitMap.put(commitObj.getId(), count);
-            return commitMap;
-        }
-        commitMap.put(commitObj.getId(), count);
-        count++;
-        for (String id : commitObj.getParentId()) {
-            Commit parent = getCommitFromId(id);
-            commitMap.putAll(getCommitMap(parent, count));
-        }
-        return commitMap;
-    }
-
-    /**
-     * Find the split point of given two commit
-     * Traverse two map and find the split point, which is a commit in both
-     * branch and has minimum length when encounter this commit
-     * @param commitMap1 commit map 1
-     * @param commitMap2 commit map 2
-     * @return split point of two map
-     */
-    private static Commit getSplitPointFromMap(Map<String, Integer> commitMap1,
-                                               Map<String, Integer> commitMap2) {
-        int length = Integer.MAX_VALUE;
-        String splitPointId = "";
-        for (String id : commitMap1.keySet()) {
-            if (commitMap2.containsKey(id) && commitMap2.get(id) < length) {
-                length = commitMap2.get(id);
-                splitPointId = id;
+        List<Integer> bases = CommitGraph.mergeBases(CommitGraph.positionOf(commit1.getId()),
+                CommitGraph.positionOf(commit2.getId()));
+        int split = bases.get(0);
+        for (int base : bases) {
+            if (CommitGraph.generationAt(base) == CommitGraph.generationAt(split)
+                    && CommitGraph.timeAt(base) > CommitGraph.timeAt(split)) {
+                split = base;
             }
         }
-        return getCommitFromId(splitPointId);
+        return ObjectStore.read(CommitGraph.idAt(split), Commit.class);
     }
 
     /**
@@ -1137,13 +1400,16 @@ public class Repository {
      *           Split
      * ==============================
      *
-     * @param split split node of two branch
-     * @param newBranch given branch to merge
+     * Answered with the reachability bitmaps, before the split point is
+     * searched for.
+     *
+     * @param given head commit of the given branch
+     * @param head head commit of the current branch
      */
-    private static void checkIfInGivenBranch(Commit split, String newBranch) {
-        if (split.getId().equals(getCommitFromBranchName(newBranch).getId())) {
+    private static void checkIfInGivenBranch(Commit given, Commit head) {
+        if (isAncestor(given, head)) {
             System.out.println("Given branch is an ancestor of the current branch.");
-            System.exit(0);
+            exit(0);
         }
     }
 
@@ -1158,10 +1424,14 @@ public class Repository {
      *           Split
      * ==============================
      *
-     * @param split split node of two branch
+     * Answered with the reachability bitmaps, before the split point is
+     * searched for.
+     *
+     * @param given head commit of the given branch
+     * @param newBranch given branch to merge
      */
-    private static void checkIfInCurrBranch(Commit split, String newBranch) {
-        if (split.getId().equals(commit.getId())) {
+    private static void checkIfInCurrBranch(Commit given, String newBranch) {
+        if (isAncestor(commit, given)) {
             System.out.println("Current branch fast-forwarded.");
             checkoutInBranch(newBranch);
         }
@@ -1183,13 +1453,16 @@ public class Repository {
         List<String> filesToWrite = getWriteFiles(split, tmpCommit, mergeCommit);
         List<String> filesToDelete = getDeleteFiles(split, tmpCommit, mergeCommit);
 
-        overwriteFiles(getFileNameFromBlobId(filesToOverWrite), mergeCommit);
-        writeFiles(getFileNameFromBlobId(filesToWrite), mergeCommit);
-        deleteFiles(getFileNameFromBlobId(filesToDelete));
+        List<File> deletions = getFiles(filesToDelete);
+        checkUntrackedFiles(getFiles(filesToWrite), deletions);
+        Map<File, String> filesToUpdate = getFilesToWrite(filesToOverWrite, mergeCommit);
+        filesToUpdate.putAll(getFilesToWrite(filesToWrite, mergeCommit));
+        CheckoutWriter.apply(deletions, filesToUpdate);
 
         checkIfConflict(allFiles, split, tmpCommit, mergeCommit);
 
-        return getMergedCommit(tmpCommit, filesToWrite, filesToOverWrite, filesToDelete);
+        return getMergedCommit(tmpCommit, mergeCommit, filesToWrite, filesToOverWrite,
+                filesToDelete);
     }
 
     /**
@@ -1216,8 +1489,7 @@ public class Repository {
         Map<String, String> currentBlobRef = tmpCommit.getBlobRef();
         Map<String, String> mergeBlobRef = mergeCommit.getBlobRef();
 
-        for (String blobId : allFiles) {
-            String path = getBlobFromId(blobId).getBlobPath();
+        for (String path : allFiles) {
 
             int score = 0;
 
@@ -1254,9 +1526,17 @@ public class Repository {
 
                 String contents = "<<<<<<< HEAD\n" + currentContent + "=======\n"
                         + mergeContent + ">>>>>>>\n";
-                String fileName = getBlobFromId(blobId).getFileName();
-                File conflictFile = join(CWD, fileName);
-                writeContents(conflictFile, contents);
+                File conflictFile = new File(path);
+                if (!conflictFile.getParentFile().isDirectory()) {
+                    conflictFile.getParentFile().mkdirs();
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(contents.getBytes(StandardCharsets.UTF_8));
+                replaceFile(conflictFile, out -> {
+                    while (bytes.hasRemaining()) {
+                        out.write(bytes);
+                    }
+                });
+                recordOverwritten(conflictFile);
             }
         }
 
@@ -1270,19 +1550,20 @@ public class Repository {
      * Helper Method to classify the files into different kinds of operations
      *
      * <p>Note that</p>
-     * Blobs are content addressable, hence we're simply using blob id to keep track
+     * Blobs are named by content alone, so the same id may be tracked under
+     * several paths; files are therefore tracked by path.
      * Implement a hash set to make sure every file only appears once in list
      *
      * @param split Split point
      * @param tmpCommit tempo commit construct using current blob list
      * @param mergeCommit HEAD of given branch
-     * @return List of files
+     * @return List of file paths
      */
     private static List<String> getAllFiles(Commit split, Commit tmpCommit, Commit mergeCommit) {
         List<String> allFiles = new ArrayList<String>();
-        allFiles.addAll(split.getBlobIdList());
-        allFiles.addAll(tmpCommit.getBlobIdList());
-        allFiles.addAll(mergeCommit.getBlobIdList());
+        allFiles.addAll(split.getBlobRef().keySet());
+        allFiles.addAll(tmpCommit.getBlobRef().keySet());
+        allFiles.addAll(mergeCommit.getBlobRef().keySet());
         Set<String> tmp = new HashSet<String>(allFiles);
         allFiles.clear();
         allFiles.addAll(tmp);
@@ -1306,7 +1587,7 @@ public class Repository {
         List<String> filesToWrite = new ArrayList<String>();
         for (String path : mergeBlobRef.keySet()) {
             if ((!splitBlobRef.containsKey(path)) && (!currentBlobRef.containsKey(path))) {
-                filesToWrite.add(mergeBlobRef.get(path));
+                filesToWrite.add(path);
             }
         }
         return filesToWrite;
@@ -1333,7 +1614,7 @@ public class Repository {
             if (currentBlobRef.containsKey(path) && mergeBlobRef.containsKey(path)) {
                 if (splitBlobRef.get(path).equals(currentBlobRef.get(path))
                         && (!splitBlobRef.get(path).equals(mergeBlobRef.get(path)))) {
-                    filesToOverWrite.add(mergeBlobRef.get(path));
+                    filesToOverWrite.add(path);
                 }
             }
         }
@@ -1358,60 +1639,44 @@ public class Repository {
         List<String> filesToDelete = new ArrayList<String>();
         for (String path : splitBlobRef.keySet()) {
             if (currentBlobRef.containsKey(path) && (!mergeBlobRef.containsKey(path))) {
-                filesToDelete.add(currentBlobRef.get(path));
+                filesToDelete.add(path);
             }
         }
         return filesToDelete;
     }
 
-    /**
-     * Get a list of files bond with co-respondent blob
-     *
-     * @param blobIdList given blob id list
-     * @return a list of files
-     */
-    private static List<String> getFileNameFromBlobId(List<String> blobIdList) {
-        List<String> fileName = new ArrayList<String>();
-        for (String id : blobIdList) {
-            Blob blob = getBlobFromId(id);
-            fileName.add(blob.getFileName());
-        }
-        return fileName;
-    }
-
     /**
      * Construct final merged commit after updating its blobs
      * @param mergedCommit temp commit construct before
-     * @param writeFiles list of files to be written in the temp blob list
-     * @param overwriteFiles list of files to be overwritten in the temp blob list
-     * @param deleteFiles list of files to be deleted in the temp blob list
+     * @param mergeCommit commit of the given branch to merge
+     * @param writeFiles list of paths to be written in the temp blob list
+     * @param overwriteFiles list of paths to be overwritten in the temp blob list
+     * @param deleteFiles list of paths to be deleted in the temp blob list
      * @return merged commit
      */
     private static Commit getMergedCommit(Commit mergedCommit,
+                                          Commit mergeCommit,
                                           List<String> writeFiles,
                                           List<String> overwriteFiles,
                                           List<String> deleteFiles) {
         Map<String, String> mergedBlob = mergedCommit.getBlobRef();
+        Map<String, String> mergeBlobRef = mergeCommit.getBlobRef();
 
         if (!overwriteFiles.isEmpty()) {
-            for (String id : overwriteFiles) {
-                mergedBlob.put(getBlobFromId(id).getBlobPath(), id);
+            for (String path : overwriteFiles) {
+                mergedBlob.put(path, mergeBlobRef.get(path));
             }
         }
 
         if (!writeFiles.isEmpty()) {
-            for (String id : writeFiles) {
-                mergedBlob.put(getBlobFromId(id).getBlobPath(), id);
+            for (String path : writeFiles) {
+                mergedBlob.put(path, mergeBlobRef.get(path));
             }
         }
 
         if (!deleteFiles.isEmpty()) {
-            for (String id : overwriteFiles) {
-                mergedBlob.remove(getBlobFromId(id).getBlobPath());
-            }
-
-            for (String id : deleteFiles) {
-                mergedBlob.remove(getBlobFromId(id).getBlobPath());
+            for (String path : deleteFiles) {
+                mergedBlob.remove(path);
             }
         }
 
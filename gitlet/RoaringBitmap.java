@@ -0,0 +1,211 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * A compressed set of non-negative integers in the Roaring format.
+ *
+ * <p>The integers are split by their upper 16 bits into containers of at
+ * most 65536 values, each stored in whichever of three forms is smallest:
+ * a sorted array of the lower 16 bits, a plain bitmap of 65536 bits, or a
+ * list of runs of consecutive values. Sets of commit positions are mostly
+ * long runs, since the ancestors of a commit were usually saved one after
+ * another, so they shrink to a few bytes per container.</p>
+ *
+ * <p>Bitmaps are built in a {@link BitSet} and then encoded. A decoded
+ * bitmap answers {@link #contains} with a binary search over the containers
+ * and one inside the container, without expanding it.</p>
+ *
+ * @author QIU JINHANG
+ */
+public class RoaringBitmap {
+
+    private static final byte ARRAY = 0;
+    private static final byte BITMAP = 1;
+    private static final byte RUN = 2;
+
+    private static final int CONTAINER_SIZE = 1 << 16;
+    private static final int BITMAP_WORDS = CONTAINER_SIZE / Long.SIZE;
+
+    /** Upper 16 bits of the values in each container, ascending. */
+    private final char[] keys;
+    private final byte[] kinds;
+    /** Lower 16 bits for ARRAY, start and length - 1 pairs for RUN. */
+    private final char[][] values;
+    /** Words of each BITMAP container. */
+    private final long[][] words;
+
+    private RoaringBitmap(int count) {
+        keys = new char[count];
+        kinds = new byte[count];
+        values = new char[count][];
+        words = new long[count][];
+    }
+
+    /**
+     * Encode the set bits of BITS
+     * @param bits set to encode
+     * @return encoded bitmap
+     */
+    public static byte[] encode(BitSet bits) {
+        int containerCount = 0;
+        int size = 4;
+        for (int key = 0; key * (long) CONTAINER_SIZE < bits.length(); key++) {
+            BitSet container = bits.get(key * CONTAINER_SIZE, (key + 1) * CONTAINER_SIZE);
+            if (!container.isEmpty()) {
+                containerCount++;
+                size += 2 + 1 + 4 + Math.min(Math.min(2 * container.cardinality(),
+                        8 * BITMAP_WORDS), 4 * countRuns(container));
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(containerCount);
+        for (int key = 0; key * (long) CONTAINER_SIZE < bits.length(); key++) {
+            BitSet container = bits.get(key * CONTAINER_SIZE, (key + 1) * CONTAINER_SIZE);
+            if (container.isEmpty()) {
+                continue;
+            }
+            int cardinality = container.cardinality();
+            int runs = countRuns(container);
+            out.putChar((char) key);
+            if (4 * runs <= Math.min(2 * cardinality, 8 * BITMAP_WORDS)) {
+                out.put(RUN).putInt(runs);
+                int start = container.nextSetBit(0);
+                while (start >= 0) {
+                    int end = container.nextClearBit(start);
+                    out.putChar((char) start).putChar((char) (end - start - 1));
+                    start = container.nextSetBit(end);
+                }
+            } else if (2 * cardinality <= 8 * BITMAP_WORDS) {
+                out.put(ARRAY).putInt(cardinality);
+                for (int i = container.nextSetBit(0); i >= 0; i = container.nextSetBit(i + 1)) {
+                    out.putChar((char) i);
+                }
+            } else {
+                out.put(BITMAP).putInt(cardinality);
+                long[] containerWords = container.toLongArray();
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    out.putLong(i < containerWords.length ? containerWords[i] : 0);
+                }
+            }
+        }
+        return out.array();
+    }
+
+    /**
+     * Read a bitmap written by {@link #encode}
+     * @param in buffer positioned at the bitmap, left after it
+     * @return the bitmap
+     */
+    public static RoaringBitmap decode(ByteBuffer in) {
+        RoaringBitmap bitmap = new RoaringBitmap(in.getInt());
+        for (int i = 0; i < bitmap.keys.length; i++) {
+            bitmap.keys[i] = in.getChar();
+            bitmap.kinds[i] = in.get();
+            int count = in.getInt();
+            if (bitmap.kinds[i] == BITMAP) {
+                bitmap.words[i] = new long[BITMAP_WORDS];
+                in.asLongBuffer().get(bitmap.words[i]);
+                in.position(in.position() + 8 * BITMAP_WORDS);
+            } else {
+                int length = bitmap.kinds[i] == RUN ? 2 * count : count;
+                bitmap.values[i] = new char[length];
+                in.asCharBuffer().get(bitmap.values[i]);
+                in.position(in.position() + 2 * length);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Determine whether VALUE is in the set
+     * @param value non-negative integer
+     * @return boolean value
+     */
+    public boolean contains(int value) {
+        int container = search(keys, keys.length, (char) (value >>> 16));
+        if (container < 0) {
+            return false;
+        }
+        char low = (char) value;
+        switch (kinds[container]) {
+            case ARRAY:
+                return search(values[container], values[container].length, low) >= 0;
+            case BITMAP:
+                return (words[container][low >>> 6] & (1L << low)) != 0;
+            default:
+                char[] runs = values[container];
+                int lowRun = 0;
+                int highRun = runs.length / 2 - 1;
+                while (lowRun <= highRun) {
+                    int mid = (lowRun + highRun) >>> 1;
+                    int start = runs[2 * mid];
+                    if (low < start) {
+                        highRun = mid - 1;
+                    } else if (low > start + runs[2 * mid + 1]) {
+                        lowRun = mid + 1;
+                    } else {
+                        return true;
+                    }
+                }
+                return false;
+        }
+    }
+
+    /**
+     * Set the bit of every value in the set in BITS
+     * @param bits set to add to
+     */
+    public void orInto(BitSet bits) {
+        for (int i = 0; i < keys.length; i++) {
+            int base = keys[i] << 16;
+            if (kinds[i] == BITMAP) {
+                BitSet container = BitSet.valueOf(words[i]);
+                for (int v = container.nextSetBit(0); v >= 0; v = container.nextSetBit(v + 1)) {
+                    bits.set(base + v);
+                }
+            } else if (kinds[i] == ARRAY) {
+                for (char v : values[i]) {
+                    bits.set(base + v);
+                }
+            } else {
+                for (int r = 0; r < values[i].length; r += 2) {
+                    int start = base + values[i][r];
+                    bits.set(start, start + values[i][r + 1] + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Count the runs of consecutive set bits in BITS
+     */
+    private static int countRuns(BitSet bits) {
+        int runs = 0;
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(bits.nextClearBit(i))) {
+            runs++;
+        }
+        return runs;
+    }
+
+    /**
+     * Binary search for KEY among the first N sorted values of KEYS
+     * @return index of KEY, or -1 if it is absent
+     */
+    private static int search(char[] keys, int n, char key) {
+        int low = 0;
+        int high = n - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else if (keys[mid] > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+}
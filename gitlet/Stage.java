@@ -1,16 +1,22 @@
 package gitlet;
 
-import java.io.File;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
-import static gitlet.Repository.OBJECT_DIR;
+import static gitlet.ObjectCodec.*;
 import static gitlet.Utils.*;
 
 public class Stage implements Serializable {
+    /** Matches stages Java-serialized by older versions, see {@link ObjectCodec}. */
+    private static final long serialVersionUID = -7997050027318157897L;
+
     /**
      * Implement a HashMap to store blob reference
      * Key: path, Value: blobId
@@ -18,12 +24,12 @@ public class Stage implements Serializable {
     private Map<String, String> blobRef = new HashMap<String, String>();
 
     /**
-     * Determine whether the stage have specific blob
+     * Determine whether the stage have specific blob at the path it was read from
      * @param blob Target blob
      * @return boolean
      */
     public boolean containsBlob(Blob blob) {
-        return blobRef.containsValue(blob.getId());
+        return blob.getId().equals(blobRef.get(blob.getBlobPath()));
     }
 
     /**
@@ -42,7 +48,7 @@ public class Stage implements Serializable {
      * to the Add Stage are persisted and can be retrieved later.
      */
     public void saveAddStage() {
-        writeObject(Repository.ADDSTAGE_FILE, this);
+        Transaction.writeObject(Repository.ADDSTAGE_FILE, this);
     }
 
     /**
@@ -52,7 +58,7 @@ public class Stage implements Serializable {
      * to the Remove Stage are persisted and can be retrieved later.
      */
     public void saveRemoveStage() {
-        writeObject(Repository.REMOVESTAGE_FILE, this);
+        Transaction.writeObject(Repository.REMOVESTAGE_FILE, this);
     }
 
     /**
@@ -79,6 +85,15 @@ public class Stage implements Serializable {
         this.blobRef.put(blob.getBlobPath(), blob.getId());
     }
 
+    /**
+     * Add the blob with the given id to the Stage under PATH
+     * @param path Path of the file
+     * @param blobId id of the blob
+     */
+    public void add(String path, String blobId) {
+        this.blobRef.put(path, blobId);
+    }
+
     /**
      * clear blob in stage
      */
@@ -87,16 +102,15 @@ public class Stage implements Serializable {
     }
 
     /**
-     * Get a List of Blob
+     * Get the metadata of every staged blob, without reading any blob
+     * @return list of blob metadata
      */
-    public List<Blob> getBlobList() {
-        Blob blob;
-        List<Blob> blobList = new ArrayList<Blob>();
-        for (String id : blobRef.values()) {
-            blob = getBlobByID(id);
-            blobList.add(blob);
+    public List<BlobInfo> getBlobInfoList() {
+        List<BlobInfo> blobInfoList = new ArrayList<BlobInfo>();
+        for (Map.Entry<String, String> ref : blobRef.entrySet()) {
+            blobInfoList.add(new BlobInfo(ref.getValue(), ref.getKey()));
         }
-        return blobList;
+        return blobInfoList;
     }
 
     /**
@@ -105,8 +119,7 @@ public class Stage implements Serializable {
      * @return target blob
      */
     public static Blob getBlobByID(String id) {
-        File blobFile = join(OBJECT_DIR, id);
-        return readObject(blobFile, Blob.class);
+        return ObjectStore.read(id, Blob.class);
     }
 
     /**
@@ -134,6 +147,32 @@ public class Stage implements Serializable {
         return this.blobRef.isEmpty();
     }
 
+    /**
+     * Write the staged paths and blob ids in the binary object format
+     * @param out stream to write to
+     */
+    void encode(DataOutputStream out) throws IOException {
+        out.writeInt(blobRef.size());
+        for (Map.Entry<String, String> entry : new TreeMap<String, String>(blobRef).entrySet()) {
+            writeString(out, entry.getKey());
+            writeId(out, entry.getValue());
+        }
+    }
+
+    /**
+     * Read a stage written by {@link #encode}
+     * @param in stream to read from
+     * @return the stage
+     */
+    static Stage decode(DataInputStream in) throws IOException {
+        Stage stage = new Stage();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            String path = readString(in);
+            stage.blobRef.put(path, readId(in));
+        }
+        return stage;
+    }
 
 
 }
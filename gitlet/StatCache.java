@@ -0,0 +1,267 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.ObjectCodec.*;
+import static gitlet.Repository.CWD;
+import static gitlet.Repository.STAT_CACHE_FILE;
+
+/**
+ * The stat cache: the size, modification time, inode and blob id of every
+ * tracked file as last hashed, so status only hashes files which changed.
+ *
+ * <p>A file whose size, modification time and inode match its entry is
+ * taken to still have the recorded blob id, at the cost of one stat and no
+ * read. Any other file is hashed and its entry replaced.</p>
+ *
+ * <p>A file changed in the same second as it was hashed may keep the same
+ * size and modification time, so such an entry could hide the change. An
+ * entry for a file modified no earlier than the second the running command
+ * started is therefore recorded with a size of -1, which never matches; the
+ * file is hashed again by the next command, by which time a change to it
+ * would show in its modification time.</p>
+ *
+ * <p>The file starts with a magic number and a version, followed by the
+ * number of entries and the entries sorted by path relative to the working
+ * directory. It is only rewritten when an entry changed.</p>
+ *
+ * @author QIU JINHANG
+ */
+public class StatCache {
+
+    private static final int MAGIC = 0x53544154;
+    private static final int VERSION = 1;
+
+    /** Size recorded for an entry which must be hashed again. */
+    private static final long RACY = -1;
+
+    /** Time the running command started, in whole seconds. */
+    private static final long START_SECONDS =
+            TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+
+    /** Entries by relative path, or null until loaded. */
+    private static Map<String, Entry> entries;
+    private static boolean changed;
+
+    /**
+     * Get the blob ids of the contents of working files, hashing only the
+     * files which changed since they were last hashed. Files are stat-ed
+     * and hashed in parallel, see {@link WorkingTree}.
+     * @param paths absolute paths of files in the working directory
+     * @return blob id by path, leaving out files which do not exist
+     */
+    public static Map<String, String> blobIds(Collection<String> paths) {
+        load();
+        List<String> pathList = new ArrayList<String>(paths);
+        List<BasicFileAttributes> stats = WorkingTree.map(pathList, path -> stat(new File(path)));
+        Map<String, String> ids = new TreeMap<String, String>();
+        List<Integer> misses = new ArrayList<Integer>();
+        for (int i = 0; i < pathList.size(); i++) {
+            BasicFileAttributes attributes = stats.get(i);
+            if (attributes == null || !attributes.isRegularFile()) {
+                continue;
+            }
+            Entry entry = entries.get(relativePath(new File(pathList.get(i))));
+            if (entry != null && entry.matches(attributes)) {
+                ids.put(pathList.get(i), entry.id);
+            } else {
+                misses.add(i);
+            }
+        }
+        List<String> hashed = WorkingTree.map(misses,
+                i -> new Blob(new File(pathList.get(i))).getId());
+        for (int j = 0; j < misses.size(); j++) {
+            int i = misses.get(j);
+            record(new File(pathList.get(i)), stats.get(i), hashed.get(j));
+            ids.put(pathList.get(i), hashed.get(j));
+        }
+        return ids;
+    }
+
+    /**
+     * Get the blob id recorded for a working file without looking at the
+     * file, for a file known to be unchanged since its entry was written
+     * @param path absolute path of the file
+     * @return blob id, or null if there is no entry or it must be hashed again
+     */
+    public static String cachedId(String path) {
+        load();
+        Entry entry = entries.get(relativePath(new File(path)));
+        return entry == null || entry.size == RACY ? null : entry.id;
+    }
+
+    /**
+     * Record the blob id of a working file just hashed elsewhere, e.g. by add
+     * @param file file in the working directory
+     * @param id blob id of its content
+     */
+    public static void record(File file, String id) {
+        load();
+        BasicFileAttributes attributes = stat(file);
+        if (attributes != null) {
+            record(file, attributes, id);
+        }
+    }
+
+    /**
+     * Drop the entries of files no longer tracked
+     * @param paths absolute paths of the tracked files
+     */
+    public static void retain(Collection<String> paths) {
+        load();
+        int before = entries.size();
+        entries.keySet().removeIf(path -> !paths.contains(new File(CWD, path).getPath()));
+        changed |= entries.size() != before;
+    }
+
+    /**
+     * Write the cache if an entry changed
+     */
+    public static void save() {
+        if (!changed) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writeString(out, entry.getKey());
+                entry.getValue().encode(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Transaction.writeContents(STAT_CACHE_FILE, (Object) bytes.toByteArray());
+        changed = false;
+    }
+
+    private static void record(File file, BasicFileAttributes attributes, String id) {
+        long mtime = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        boolean racy = TimeUnit.NANOSECONDS.toSeconds(mtime) >= START_SECONDS;
+        Entry entry = new Entry(racy ? RACY : attributes.size(), mtime,
+                fileKey(attributes), id);
+        if (!entry.equals(entries.put(relativePath(file), entry))) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Read the cache unless it has been read already. A cache which cannot
+     * be read is discarded, since every entry can be rebuilt by hashing.
+     */
+    private static void load() {
+        if (entries != null) {
+            return;
+        }
+        entries = new TreeMap<String, Entry>();
+        if (!STAT_CACHE_FILE.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Utils.readContents(STAT_CACHE_FILE)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Invalid stat cache.");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = readString(in);
+                entries.put(path, Entry.decode(in));
+            }
+        } catch (IOException excp) {
+            entries.clear();
+            changed = true;
+        }
+    }
+
+    /**
+     * Read the attributes of FILE with a single stat
+     * @return attributes, or null if the file does not exist
+     */
+    private static BasicFileAttributes stat(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Get the inode of a file, as the file key of the file system
+     */
+    private static String fileKey(BasicFileAttributes attributes) {
+        Object key = attributes.fileKey();
+        return key == null ? "" : key.toString();
+    }
+
+    private static String relativePath(File file) {
+        return CWD.toPath().relativize(file.toPath()).toString()
+                .replace(File.separatorChar, '/');
+    }
+
+    /** The stat data and blob id of one file. */
+    private static class Entry {
+        private final long size;
+        /** Modification time in nanoseconds since the epoch. */
+        private final long mtime;
+        private final String inode;
+        private final String id;
+
+        Entry(long size, long mtime, String inode, String id) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.id = id;
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size()
+                    && mtime == attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                    && inode.equals(fileKey(attributes));
+        }
+
+        void encode(DataOutputStream out) throws IOException {
+            out.writeLong(size);
+            out.writeLong(mtime);
+            writeString(out, inode);
+            writeId(out, id);
+        }
+
+        static Entry decode(DataInputStream in) throws IOException {
+            return new Entry(in.readLong(), in.readLong(), readString(in), readId(in));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Entry)) {
+                return false;
+            }
+            Entry entry = (Entry) other;
+            return size == entry.size && mtime == entry.mtime
+                    && inode.equals(entry.inode) && id.equals(entry.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Repository.JOURNAL_DIR;
+import static gitlet.Utils.join;
+import static gitlet.Utils.plainFilenamesIn;
+
+/**
+ * Crash-safe updates of the files in {@code .gitlet}.
+ *
+ * <p>No file is ever rewritten in place. New content goes to a temporary
+ * file in {@link Repository#JOURNAL_DIR} and is renamed over the old file,
+ * so a reader sees either the old or the new version, never a torn one.</p>
+ *
+ * <p>A command usually changes several files together, e.g. commit writes
+ * the object index, both stages and a branch head. The first time a command
+ * replaces or deletes such a file, the old version is kept as a hard link in
+ * the journal directory and a line naming it is appended to the journal
+ * log. When the command finishes, {@link #commit} deletes the log and the
+ * old versions. If the process dies before that, whether it crashed or was
+ * ended by a signal such as Ctrl-C, the next command finds the log and
+ * {@link #recover} puts every old version back, so the repository is left
+ * as it was before the interrupted command.</p>
+ *
+ * <p>Objects and packs are named by their content and are only created,
+ * never replaced, so they are renamed into place without a journal entry.
+ * A crash can leave one unreferenced but never a corrupt one.</p>
+ *
+ * <p>How much is flushed to disk is set with {@code config durability}:</p>
+ * <ul>
+ *   <li>{@code none}: nothing is synced. Files are still replaced
+ *   atomically and interrupted commands are still rolled back, but a power
+ *   failure may lose recent commands.</li>
+ *   <li>{@code per-command}, the default: every file written by a command is
+ *   synced in one barrier when the command ends, so a command that returned
+ *   survives a power failure. One that is cut off by a power failure may
+ *   leave some files new and others old.</li>
+ *   <li>{@code paranoid}: the journal, each file and its directory are
+ *   synced as they are written, so even a command cut off by a power
+ *   failure is rolled back completely.</li>
+ * </ul>
+ * Files written to the working directory are never synced.
+ *
+ * @author QIU JINHANG
+ */
+public class Transaction {
+
+    public static final String NONE = "none";
+    public static final String PER_COMMAND = "per-command";
+    public static final String PARANOID = "paranoid";
+
+    /**
+     * For tests only: number of files in .gitlet a command may replace or
+     * delete before its process is ended without committing, as Ctrl-C
+     * would. Set with the system property {@code gitlet.test.interruptAfter};
+     * there is no setting for it.
+     */
+    private static final long INTERRUPT_AFTER =
+            Long.getLong("gitlet.test.interruptAfter", Long.MAX_VALUE);
+    /** Exit status of a command ended by INTERRUPT_AFTER, as after Ctrl-C. */
+    private static final int INTERRUPTED_STATUS = 130;
+
+    /** Journal listing the old version of every file changed by the command. */
+    private static final File LOG_FILE = join(JOURNAL_DIR, "log");
+    /** Journal entry of a file which did not exist before the command. */
+    private static final String ABSENT = "-";
+
+    /** Files created or replaced since the last barrier, to be synced by it. */
+    private static final Set<File> written = new LinkedHashSet<File>();
+    /** Files the journal already holds an old version of. */
+    private static final Set<File> journaled = new HashSet<File>();
+
+    /**
+     * Replace FILE with CONTENTS, each a String or byte array, as {@link
+     * Utils#writeContents} does, keeping the old version until the command
+     * ends
+     * @param file file in .gitlet to write
+     * @param contents new content
+     */
+    public static void writeContents(File file, Object... contents) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Object obj : contents) {
+            if (obj instanceof byte[]) {
+                bytes.writeBytes((byte[]) obj);
+            } else {
+                bytes.writeBytes(((String) obj).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        File tmp = newTempFile();
+        try {
+            Files.write(tmp.toPath(), bytes.toByteArray());
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        journal(file);
+        install(tmp, file);
+    }
+
+    /**
+     * Replace FILE with the compressed encoding of OBJ, as {@link
+     * Utils#writeObject} does, keeping the old version until the command
+     * ends
+     * @param file file in .gitlet to write
+     * @param obj object to write
+     */
+    public static void writeObject(File file, Serializable obj) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream(bytes)) {
+            out.write(ObjectCodec.encode(obj));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeContents(file, (Object) bytes.toByteArray());
+    }
+
+    /**
+     * Append BYTES to FILE, for files which only ever grow and whose
+     * readers drop a record cut off by a crash. Appends are not journaled:
+     * a rolled back command may leave records behind, so they must be
+     * harmless on their own.
+     * @param file file in .gitlet to append to
+     * @param bytes records to append
+     */
+    public static void append(File file, byte[] bytes) {
+        if (bytes.length == 0) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (PARANOID.equals(durability())) {
+                channel.force(true);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (!PARANOID.equals(durability())) {
+            written.add(file);
+        }
+    }
+
+    /**
+     * Delete FILE, keeping it until the command ends
+     * @param file file in .gitlet to delete
+     */
+    public static void delete(File file) {
+        journal(file);
+        file.delete();
+        if (PARANOID.equals(durability())) {
+            sync(file.getParentFile());
+        }
+    }
+
+    /**
+     * Create a temporary file on the same file system as the repository, to
+     * be renamed into place by {@link #install}
+     * @return empty file
+     */
+    public static File newTempFile() {
+        if (!JOURNAL_DIR.exists()) {
+            GitUtils.mkdir(JOURNAL_DIR);
+        }
+        try {
+            return Files.createTempFile(JOURNAL_DIR.toPath(), "tmp-", null).toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Rename the finished file TMP to TARGET in one step. TARGET is synced
+     * by the next barrier, or right away when durability is paranoid.
+     * @param tmp file from {@link #newTempFile}
+     * @param target name to give it
+     */
+    public static void install(File tmp, File target) {
+        boolean paranoid = PARANOID.equals(durability());
+        if (paranoid) {
+            sync(tmp);
+        }
+        try {
+            Files.move(tmp.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (paranoid) {
+            sync(target.getParentFile());
+        } else {
+            written.add(target);
+        }
+    }
+
+    /**
+     * End the current command: merge the ids of the objects it saved into
+     * the object index, sync everything it wrote in one barrier, then
+     * drop the journal so its changes can no longer be rolled back. Called
+     * when Main returns and by {@link GitUtils#exit}, never from a shutdown
+     * hook, so a command ended by a signal is rolled back rather than kept
+     * half done. May also be called in the middle of a command which must
+     * not lose what it wrote so far, e.g. before deleting objects which
+     * were just packed.
+     */
+    public static void commit() {
+        ObjectIndex.flush();
+        if (written.isEmpty() && journaled.isEmpty()) {
+            return;
+        }
+        if (PER_COMMAND.equals(durability())) {
+            Set<File> dirs = new LinkedHashSet<File>();
+            for (File file : written) {
+                sync(file);
+                dirs.add(file.getParentFile());
+            }
+            for (File dir : dirs) {
+                sync(dir);
+            }
+        }
+        written.clear();
+        if (!journaled.isEmpty()) {
+            LOG_FILE.delete();
+            if (PARANOID.equals(durability())) {
+                sync(JOURNAL_DIR);
+            }
+            clearJournal();
+            journaled.clear();
+        }
+    }
+
+    /**
+     * Undo every change journaled by the current command, e.g. after it
+     * failed with an exception
+     */
+    public static void rollback() {
+        recover();
+        written.clear();
+        journaled.clear();
+    }
+
+    /**
+     * Roll back a command which was interrupted before it finished, putting
+     * back the old version of every file it changed. Does nothing when the
+     * last command finished.
+     */
+    public static void recover() {
+        if (!JOURNAL_DIR.exists()) {
+            return;
+        }
+        if (LOG_FILE.exists()) {
+            String[] lines = Utils.readContentsAsString(LOG_FILE).split("\n", -1);
+            /* The last element is empty or an entry cut off by the crash. */
+            for (int i = lines.length - 2; i >= 0; i--) {
+                String[] entry = lines[i].split("\t", 2);
+                File target = join(GITLET_DIR, entry[1]);
+                try {
+                    if (entry[0].equals(ABSENT)) {
+                        Files.deleteIfExists(target.toPath());
+                    } else {
+                        Files.move(join(JOURNAL_DIR, entry[0]).toPath(), target.toPath(),
+                                StandardCopyOption.REPLACE_EXISTING,
+                                StandardCopyOption.ATOMIC_MOVE);
+                    }
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+            LOG_FILE.delete();
+        }
+        clearJournal();
+    }
+
+    /**
+     * Keep the current version of FILE in the journal, the first time the
+     * command changes it
+     */
+    private static void journal(File file) {
+        if (!journaled.add(file)) {
+            return;
+        }
+        if (journaled.size() > INTERRUPT_AFTER) {
+            /* Shutdown hooks run as on a signal, but nothing commits. */
+            System.exit(INTERRUPTED_STATUS);
+        }
+        if (!JOURNAL_DIR.exists()) {
+            GitUtils.mkdir(JOURNAL_DIR);
+        }
+        String backup = ABSENT;
+        if (file.exists()) {
+            backup = Integer.toString(journaled.size());
+            File copy = join(JOURNAL_DIR, backup);
+            try {
+                Files.deleteIfExists(copy.toPath());
+                try {
+                    Files.createLink(copy.toPath(), file.toPath());
+                } catch (UnsupportedOperationException | IOException excp) {
+                    Files.copy(file.toPath(), copy.toPath());
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        String path = GITLET_DIR.toPath().relativize(file.toPath()).toString()
+                .replace(File.separatorChar, '/');
+        byte[] entry = (backup + "\t" + path + "\n").getBytes(StandardCharsets.UTF_8);
+        try (FileChannel log = FileChannel.open(LOG_FILE.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            log.write(ByteBuffer.wrap(entry));
+            if (PARANOID.equals(durability())) {
+                log.force(true);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (PARANOID.equals(durability())) {
+            sync(JOURNAL_DIR);
+        }
+    }
+
+    /**
+     * Delete the old versions and temporary files left in the journal
+     * directory
+     */
+    private static void clearJournal() {
+        for (String name : plainFilenamesIn(JOURNAL_DIR)) {
+            join(JOURNAL_DIR, name).delete();
+        }
+    }
+
+    /**
+     * Flush FILE, or the entries of directory FILE, to disk. A file which
+     * has been moved away since it was written is skipped.
+     */
+    private static void sync(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (NoSuchFileException excp) {
+            return;
+        } catch (IOException excp) {
+            /* Some platforms cannot open a directory to sync it. */
+            if (!file.isDirectory()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Get the durability level set in the config. An unknown value, e.g.
+     * one written into the config file by hand, counts as the default.
+     */
+    private static String durability() {
+        String durability = Config.get(Config.DURABILITY, PER_COMMAND);
+        return Config.isValid(Config.DURABILITY, durability) ? durability : PER_COMMAND;
+    }
+}
@@ -0,0 +1,222 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.ObjectCodec.*;
+
+/**
+ * A tree object lists the files and subdirectories of one directory.
+ *
+ * <p>Each file maps its name to a blob id and each subdirectory maps its
+ * name to the id of another tree. A tree is named by the hash of its
+ * encoding, so two commits whose directory is unchanged share the same
+ * tree object, and a commit only writes the trees along the paths that
+ * changed. Two trees with the same id are known to be identical without
+ * looking inside them.</p>
+ *
+ * <p>Paths handled by this class are relative to the working directory and
+ * use '/' between names. Empty directories are not stored.</p>
+ *
+ * @author QIU JINHANG
+ */
+public class Tree implements Serializable {
+    /** Trees are only ever stored by {@link ObjectCodec}, never Java-serialized. */
+    private static final long serialVersionUID = 1L;
+
+    /** Files in this directory, name to blob id. */
+    private final TreeMap<String, String> blobs = new TreeMap<String, String>();
+    /** Subdirectories of this directory, name to tree id. */
+    private final TreeMap<String, String> trees = new TreeMap<String, String>();
+
+    /**
+     * Apply CHANGES to the tree TREEID and store the result. Only the trees
+     * on the paths of the changes are rewritten; every other subtree keeps
+     * its id.
+     * @param treeId id of the tree to start from, or null for an empty tree
+     * @param changes path to new blob id, or to null to remove the path
+     * @return id of the new tree
+     */
+    public static String update(String treeId, Map<String, String> changes) {
+        Tree tree = treeId == null ? new Tree() : read(treeId).copy();
+        tree.apply(changes);
+        return tree.save();
+    }
+
+    /**
+     * Store the trees for a whole list of files
+     * @param files path to blob id
+     * @return id of the root tree
+     */
+    public static String write(Map<String, String> files) {
+        return update(null, files);
+    }
+
+    /**
+     * List every file below the tree TREEID
+     * @param treeId id of the root tree
+     * @return path to blob id
+     */
+    public static Map<String, String> flatten(String treeId) {
+        Map<String, String> files = new HashMap<String, String>();
+        read(treeId).flatten("", files);
+        return files;
+    }
+
+    /**
+     * Find the blob id of a single file, reading only the trees on its path
+     * @param treeId id of the root tree
+     * @param path path of the file
+     * @return blob id, or null if the file is not in the tree
+     */
+    public static String lookup(String treeId, String path) {
+        Tree tree = read(treeId);
+        int slash;
+        while ((slash = path.indexOf('/')) >= 0) {
+            String subtreeId = tree.trees.get(path.substring(0, slash));
+            if (subtreeId == null) {
+                return null;
+            }
+            tree = read(subtreeId);
+            path = path.substring(slash + 1);
+        }
+        return tree.blobs.get(path);
+    }
+
+    /**
+     * Read the tree with the given id
+     * @param treeId full id of the tree
+     * @return tree
+     */
+    public static Tree read(String treeId) {
+        return ObjectStore.read(treeId, Tree.class);
+    }
+
+    public Map<String, String> getBlobs() {
+        return blobs;
+    }
+
+    public Map<String, String> getTrees() {
+        return trees;
+    }
+
+    public boolean isEmpty() {
+        return blobs.isEmpty() && trees.isEmpty();
+    }
+
+    /**
+     * Apply CHANGES, whose paths are relative to this tree, saving each
+     * changed subtree and dropping subtrees left empty
+     */
+    private void apply(Map<String, String> changes) {
+        Map<String, Map<String, String>> subChanges = new TreeMap<String, Map<String, String>>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subChanges.computeIfAbsent(path.substring(0, slash),
+                        k -> new HashMap<String, String>())
+                        .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                blobs.remove(path);
+            } else {
+                blobs.put(path, change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> sub : subChanges.entrySet()) {
+            String name = sub.getKey();
+            Tree subtree = trees.containsKey(name) ? read(trees.get(name)).copy() : new Tree();
+            subtree.apply(sub.getValue());
+            if (subtree.isEmpty()) {
+                trees.remove(name);
+            } else {
+                trees.put(name, subtree.save());
+            }
+        }
+    }
+
+    /**
+     * Get a copy of this tree which can be changed without changing the
+     * instance shared through the object cache
+     */
+    private Tree copy() {
+        Tree tree = new Tree();
+        tree.blobs.putAll(blobs);
+        tree.trees.putAll(trees);
+        return tree;
+    }
+
+    /**
+     * Add every file below this tree to FILES, prefixing paths with PREFIX
+     */
+    private void flatten(String prefix, Map<String, String> files) {
+        for (Map.Entry<String, String> blob : blobs.entrySet()) {
+            files.put(prefix + blob.getKey(), blob.getValue());
+        }
+        for (Map.Entry<String, String> tree : trees.entrySet()) {
+            read(tree.getValue()).flatten(prefix + tree.getKey() + "/", files);
+        }
+    }
+
+    /**
+     * Get the id of this tree, the hash of its encoding
+     * @return tree id
+     */
+    public String getId() {
+        return Utils.sha1((Object) ObjectCodec.encode(this));
+    }
+
+    /**
+     * Save this tree unless an identical one is already stored
+     * @return tree id
+     */
+    private String save() {
+        String id = getId();
+        if (!ObjectStore.contains(id)) {
+            ObjectStore.save(id, this);
+        }
+        return id;
+    }
+
+    /**
+     * Write the files and subdirectories of this tree in the binary object format
+     * @param out stream to write to
+     */
+    void encode(DataOutputStream out) throws IOException {
+        out.writeInt(blobs.size());
+        for (Map.Entry<String, String> blob : blobs.entrySet()) {
+            writeString(out, blob.getKey());
+            writeId(out, blob.getValue());
+        }
+        out.writeInt(trees.size());
+        for (Map.Entry<String, String> tree : trees.entrySet()) {
+            writeString(out, tree.getKey());
+            writeId(out, tree.getValue());
+        }
+    }
+
+    /**
+     * Read a tree written by {@link #encode}
+     * @param in stream to read from
+     * @return the tree
+     */
+    static Tree decode(DataInputStream in) throws IOException {
+        Tree tree = new Tree();
+        int blobCount = in.readInt();
+        for (int i = 0; i < blobCount; i++) {
+            String name = readString(in);
+            tree.blobs.put(name, readId(in));
+        }
+        int treeCount = in.readInt();
+        for (int i = 0; i < treeCount; i++) {
+            String name = readString(in);
+            tree.trees.put(name, readId(in));
+        }
+        return tree;
+    }
+}
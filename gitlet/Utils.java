@@ -1,13 +1,15 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.ObjectInputStream;
+import java.io.InputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -17,6 +19,8 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Formatter;
 import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 
 /** Assorted utilities.
@@ -137,24 +141,62 @@ class Utils {
     }
 
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
-     *  Throws IllegalArgumentException in case of problems. */
+     *  FILE may hold either a compressed object written by writeObject or
+     *  a plain serialized object; compressed contents are inflated as they
+     *  are read.  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
         try {
-            ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
-            T result = expectedClass.cast(in.readObject());
-            in.close();
-            return result;
-        } catch (IOException | ClassCastException
-                 | ClassNotFoundException excp) {
+            return readObject(new FileInputStream(file), expectedClass);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return an object of type T read from the stored object in STREAM,
+     *  casting it to EXPECTEDCLASS, and close STREAM.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T readObject(InputStream stream,
+                                                 Class<T> expectedClass) {
+        try (InputStream in = openObjectStream(stream)) {
+            return ObjectCodec.decode(in, expectedClass);
+        } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
-    /** Write OBJ to FILE. */
+    /** Write OBJ to FILE in the binary format of ObjectCodec, compressed
+     *  with Deflate. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        try {
+            if (file.isDirectory()) {
+                throw
+                    new IllegalArgumentException("cannot overwrite directory");
+            }
+            OutputStream out = new DeflaterOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(file.toPath())));
+            out.write(ObjectCodec.encode(obj));
+            out.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** The first two bytes of every plain serialized object. */
+    private static final int SERIAL_MAGIC = 0xACED;
+
+    /** Return a stream over the encoded object in STREAM, inflating it
+     *  on the fly unless STREAM holds an uncompressed object from an older
+     *  repository. */
+    static InputStream openObjectStream(InputStream stream) throws IOException {
+        InputStream in = new BufferedInputStream(stream);
+        in.mark(2);
+        int magic = (in.read() << 8) | in.read();
+        in.reset();
+        if (magic == SERIAL_MAGIC) {
+            return in;
+        }
+        return new InflaterInputStream(in);
     }
 
     /* DIRECTORIES */
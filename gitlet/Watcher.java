@@ -0,0 +1,440 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Repository.CWD;
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Repository.WATCH_DIR;
+import static gitlet.Utils.*;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * An optional watcher process which records the paths changed in the
+ * working directory, so status only looks at those paths instead of every
+ * file.
+ *
+ * <p>{@code gitlet watch} starts the watcher as a background process and
+ * returns once it is watching; {@code gitlet watch --foreground} runs it in
+ * place. It runs until it is stopped with {@code gitlet watch --stop}, is
+ * killed or the repository is deleted. It writes its process
+ * id and a token naming this run to {@code watch/pid}, and appends the path
+ * of every file or directory created, changed or deleted, relative to the
+ * working directory, as a line of {@code watch/dirty}. A line {@code *}
+ * means the operating system dropped events, so any path may have changed.
+ * The journal is started again under a new token once it grows past
+ * {@link #MAX_JOURNAL_SIZE}.</p>
+ *
+ * <p>status remembers, in {@code watch/state}, the token and how far it has
+ * read the journal, together with the files of the working directory. The
+ * next status only reads the lines after that point. Events reach the
+ * watcher after a delay, so status first creates a cookie file in the watch
+ * directory and waits for the watcher to log it: every change made before
+ * is then in the journal. If there is no watcher, the token is new, the
+ * cookie is not seen in time or the journal holds a {@code *}, status scans
+ * everything instead; it does so without waiting for the cookie once a
+ * {@code *} is read.</p>
+ *
+ * @author QIU JINHANG
+ */
+public class Watcher {
+
+    private static final File PID_FILE = join(WATCH_DIR, "pid");
+    private static final File DIRTY_FILE = join(WATCH_DIR, "dirty");
+    private static final File STATE_FILE = join(WATCH_DIR, "state");
+
+    private static final String OVERFLOW_MARK = "*";
+    private static final String COOKIE_PREFIX = "cookie-";
+    /** Prefix of the line logged for a cookie. */
+    private static final String COOKIE_MARK = "!";
+
+    private static final long MAX_JOURNAL_SIZE = 4 << 20;
+    /** How long status waits for its cookie, in milliseconds. */
+    private static final long COOKIE_TIMEOUT = 1000;
+    private static final long COOKIE_POLL_INTERVAL = 5;
+    /** How long watch waits for a new watcher to start, in milliseconds. */
+    private static final long START_TIMEOUT = 10000;
+    /**
+     * How often the watcher checks that the repository still exists, in
+     * milliseconds. Deleting a directory does not reliably wake it.
+     */
+    private static final long LIVENESS_INTERVAL = 1000;
+
+    /**
+     * Start a watcher in the background and wait until it watches the
+     * working directory
+     */
+    public static void start() {
+        if (readToken() != null) {
+            System.out.println("A watcher is already running.");
+            GitUtils.exit(0);
+        }
+        Process process;
+        try {
+            /* Its output goes nowhere, so it holds no pipe of the caller open. */
+            process = new ProcessBuilder(
+                    join(System.getProperty("java.home"), "bin", "java").getPath(),
+                    "-cp", System.getProperty("java.class.path"),
+                    Main.class.getName(), "watch", "--foreground")
+                    .directory(CWD)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        long deadline = System.currentTimeMillis() + START_TIMEOUT;
+        String prefix = process.pid() + " ";
+        while (true) {
+            String token = readToken();
+            if (token != null && token.startsWith(prefix)) {
+                return;
+            }
+            if (!process.isAlive() || System.currentTimeMillis() > deadline) {
+                process.destroy();
+                System.out.println("Could not start the watcher.");
+                GitUtils.exit(0);
+            }
+            try {
+                Thread.sleep(COOKIE_POLL_INTERVAL);
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Watch the working directory until the process is stopped or the
+     * repository is deleted
+     */
+    public static void run() {
+        if (readToken() != null) {
+            System.out.println("A watcher is already running.");
+            GitUtils.exit(0);
+        }
+        if (!WATCH_DIR.exists()) {
+            WATCH_DIR.mkdir();
+        }
+        try (WatchService service = FileSystems.getDefault().newWatchService()) {
+            WATCH_DIR.toPath().register(service, ENTRY_CREATE);
+            register(service, CWD.toPath());
+            FileOutputStream journal = startJournal();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> PID_FILE.delete()));
+            while (true) {
+                WatchKey key = service.poll(LIVENESS_INTERVAL, TimeUnit.MILLISECONDS);
+                if (!WATCH_DIR.isDirectory()) {
+                    return;
+                }
+                if (key == null) {
+                    continue;
+                }
+                List<String> lines = new ArrayList<String>();
+                collect(service, key, lines);
+                if (!lines.isEmpty()) {
+                    if (DIRTY_FILE.length() > MAX_JOURNAL_SIZE) {
+                        journal.close();
+                        journal = startJournal();
+                    }
+                    journal.write((String.join("\n", lines) + "\n")
+                            .getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop the running watcher, if any, and wait until it has exited
+     */
+    public static void stop() {
+        Long pid = readPid();
+        if (pid != null) {
+            ProcessHandle.of(pid).ifPresent(process -> {
+                process.destroy();
+                process.onExit().join();
+            });
+        }
+    }
+
+    /**
+     * Find what changed in the working directory since the last status
+     * @return the files of the working directory and the paths changed
+     */
+    public static Scan scan() {
+        String token = readToken();
+        List<String> state = STATE_FILE.exists()
+                ? List.of(readContentsAsString(STATE_FILE).split("\n"))
+                : List.of();
+        if (token == null || state.size() < 2 || !state.get(0).equals(token)) {
+            return fullScan(token);
+        }
+        long offset = Long.parseLong(state.get(1));
+        String cookie = COOKIE_PREFIX + ProcessHandle.current().pid() + "-" + System.nanoTime();
+        File cookieFile = join(WATCH_DIR, cookie);
+        List<String> lines = new ArrayList<String>();
+        long end;
+        try {
+            Files.createFile(cookieFile.toPath());
+            end = waitFor(COOKIE_MARK + cookie, offset, lines);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            cookieFile.delete();
+        }
+        if (end < 0 || lines.contains(OVERFLOW_MARK)) {
+            return fullScan(token);
+        }
+        TreeSet<String> files = new TreeSet<String>();
+        for (String path : state.subList(2, state.size())) {
+            files.add(join(CWD, path).getPath());
+        }
+        Set<String> dirty = new TreeSet<String>();
+        for (String line : lines) {
+            if (!line.startsWith(COOKIE_MARK)) {
+                dirty.add(join(CWD, line).getPath());
+            }
+        }
+        for (String path : dirty) {
+            /* A directory may have been moved in or out as a whole. */
+            files.remove(path);
+            files.subSet(path + File.separator, path + (char) (File.separatorChar + 1)).clear();
+            File changed = new File(path);
+            if (changed.isFile()) {
+                files.add(path);
+            } else if (changed.isDirectory()) {
+                files.addAll(WorkingTree.listFiles(changed));
+            }
+        }
+        return new Scan(token, end, new ArrayList<String>(files), dirty);
+    }
+
+    /**
+     * Remember how far SCAN read the journal and the files it found, for
+     * the next status. Nothing is written without a watcher.
+     * @param scan scan made by this status
+     */
+    public static void save(Scan scan) {
+        if (scan.token == null) {
+            return;
+        }
+        StringBuilder state = new StringBuilder();
+        state.append(scan.token).append('\n').append(scan.offset).append('\n');
+        for (String file : scan.files) {
+            state.append(toRelativePath(file)).append('\n');
+        }
+        Transaction.writeContents(STATE_FILE, state.toString());
+    }
+
+    /**
+     * Scan the whole working directory. With a watcher, the journal is read
+     * from its current end next time: it is measured before the scan, so
+     * changes made during the scan are looked at again.
+     */
+    private static Scan fullScan(String token) {
+        long offset = DIRTY_FILE.length();
+        return new Scan(token, offset, WorkingTree.listFiles(), null);
+    }
+
+    /**
+     * Read the journal from OFFSET into LINES until the line MARK, or a
+     * mark of dropped events, shows up
+     * @return offset after the last line read, or -1 if neither showed up
+     *         in time
+     */
+    private static long waitFor(String mark, long offset, List<String> lines) {
+        long deadline = System.currentTimeMillis() + COOKIE_TIMEOUT;
+        while (true) {
+            offset = readLines(offset, lines);
+            if (offset < 0 || lines.contains(mark) || lines.contains(OVERFLOW_MARK)) {
+                return offset;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                return -1;
+            }
+            try {
+                Thread.sleep(COOKIE_POLL_INTERVAL);
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Add the complete lines of the journal from OFFSET to LINES
+     * @return offset after the last complete line, or -1 if the journal
+     *         was started again since OFFSET
+     */
+    private static long readLines(long offset, List<String> lines) {
+        byte[] bytes;
+        try (RandomAccessFile journal = new RandomAccessFile(DIRTY_FILE, "r")) {
+            if (journal.length() < offset) {
+                return -1;
+            }
+            bytes = new byte[(int) (journal.length() - offset)];
+            journal.seek(offset);
+            journal.readFully(bytes);
+        } catch (IOException excp) {
+            return -1;
+        }
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                lines.add(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return offset + start;
+    }
+
+    /**
+     * Add the events of KEY to LINES, watching directories created under it
+     */
+    private static void collect(WatchService service, WatchKey key, List<String> lines)
+            throws IOException {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                lines.add(OVERFLOW_MARK);
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (dir.equals(WATCH_DIR.toPath())) {
+                String name = child.getFileName().toString();
+                if (name.startsWith(COOKIE_PREFIX)) {
+                    lines.add(COOKIE_MARK + name);
+                }
+                continue;
+            }
+            if (child.equals(GITLET_DIR.toPath())) {
+                continue;
+            }
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+                register(service, child);
+            }
+            lines.add(toRelativePath(child.toString()));
+        }
+        key.reset();
+    }
+
+    /**
+     * Watch DIR and every directory under it, except .gitlet
+     */
+    private static void register(WatchService service, Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path subdir, BasicFileAttributes attributes)
+                    throws IOException {
+                if (subdir.equals(GITLET_DIR.toPath())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                subdir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Empty the journal and write the pid file under a new token
+     * @return stream appending to the journal
+     */
+    private static FileOutputStream startJournal() throws IOException {
+        FileOutputStream journal = new FileOutputStream(DIRTY_FILE);
+        String token = ProcessHandle.current().pid() + " " + System.nanoTime();
+        writeContents(PID_FILE, token);
+        return journal;
+    }
+
+    /**
+     * Get the token of the running watcher
+     * @return token, or null if no watcher is running
+     */
+    private static String readToken() {
+        Long pid = readPid();
+        if (pid == null || !ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false)) {
+            return null;
+        }
+        return readContentsAsString(PID_FILE);
+    }
+
+    private static Long readPid() {
+        if (!PID_FILE.exists()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(readContentsAsString(PID_FILE).split(" ")[0]);
+        } catch (IllegalArgumentException excp) {
+            return null;
+        }
+    }
+
+    private static String toRelativePath(String path) {
+        return CWD.toPath().relativize(new File(path).toPath()).toString();
+    }
+
+    /**
+     * The files of the working directory as status found them, and which
+     * of them may have changed since the last status.
+     */
+    public static class Scan {
+        private final String token;
+        private final long offset;
+        private final List<String> files;
+        /** Changed paths, or null if any file may have changed. */
+        private final Set<String> dirty;
+
+        Scan(String token, long offset, List<String> files, Set<String> dirty) {
+            this.token = token;
+            this.offset = offset;
+            this.files = files;
+            this.dirty = dirty;
+        }
+
+        /**
+         * Get the absolute paths of the files in the working directory
+         * @return sorted list of paths
+         */
+        public List<String> getFiles() {
+            return files;
+        }
+
+        /**
+         * Determine whether the file at PATH is unchanged since the last
+         * status, so its stat cache entry can be used without a stat
+         * @param path absolute path of the file
+         * @return boolean value
+         */
+        public boolean isUnchanged(String path) {
+            if (dirty == null) {
+                return false;
+            }
+            for (File file = new File(path); !file.equals(CWD); file = file.getParentFile()) {
+                if (dirty.contains(file.getPath())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static gitlet.Repository.CWD;
+import static gitlet.Repository.GITLET_DIR;
+
+/**
+ * Scans the working directory and hashes working files on a pool of
+ * {@link Config#PARALLELISM} threads, so a cold status or a large add is
+ * not limited to one core.
+ *
+ * <p>Results never depend on the order the threads finish in: files are
+ * listed sorted, and {@link #map} returns its results in the order of its
+ * input. With a parallelism of 1, files are hashed on the calling thread.</p>
+ *
+ * @author QIU JINHANG
+ */
+public class WorkingTree {
+
+    /** Pool shared by the scans of one command, or null until needed. */
+    private static ForkJoinPool pool;
+
+    /**
+     * Get the absolute paths of all files in the working directory and its
+     * subdirectories, leaving out the .gitlet directory. Subdirectories are
+     * listed in parallel.
+     * @return sorted list of paths
+     */
+    public static List<String> listFiles() {
+        return listFiles(CWD);
+    }
+
+    /**
+     * Get the absolute paths of all files under the directory DIR of the
+     * working directory
+     * @param dir directory to list
+     * @return sorted list of paths
+     */
+    public static List<String> listFiles(File dir) {
+        List<String> files = run(new ListTask(dir));
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Apply FUNCTION to every item in parallel, e.g. to hash files
+     * @param items items to process
+     * @param function function to apply, which must be safe to call from
+     *                 several threads at once
+     * @return results, in the order of ITEMS
+     */
+    public static <T, R> List<R> map(List<T> items, Function<T, R> function) {
+        if (parallelism() == 1 || items.size() < 2) {
+            List<R> results = new ArrayList<R>(items.size());
+            for (T item : items) {
+                results.add(function.apply(item));
+            }
+            return results;
+        }
+        try {
+            return pool().submit(() -> items.parallelStream().map(function)
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            throw rethrow(excp);
+        }
+    }
+
+    /**
+     * Get the number of threads to use, from the config or the number of
+     * processors
+     */
+    static int parallelism() {
+        long configured = Config.getLong(Config.PARALLELISM,
+                Runtime.getRuntime().availableProcessors());
+        return (int) Math.max(1, Math.min(configured, Short.MAX_VALUE));
+    }
+
+    private static ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism());
+        }
+        return pool;
+    }
+
+    private static <T> T run(RecursiveTask<T> task) {
+        try {
+            return pool().submit(task).get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            throw rethrow(excp);
+        }
+    }
+
+    /**
+     * Get the exception thrown by a task, to throw on the calling thread
+     */
+    private static RuntimeException rethrow(ExecutionException excp) {
+        Throwable cause = excp.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IllegalArgumentException(cause);
+    }
+
+    /** Lists the files under one directory, forking a task per subdirectory. */
+    private static class ListTask extends RecursiveTask<List<String>> {
+        private static final long serialVersionUID = 1L;
+        private final File dir;
+
+        ListTask(File dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> files = new ArrayList<String>();
+            File[] children = dir.listFiles();
+            if (children == null) {
+                return files;
+            }
+            List<ListTask> subdirs = new ArrayList<ListTask>();
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    if (!child.equals(GITLET_DIR)) {
+                        subdirs.add(new ListTask(child));
+                    }
+                } else if (child.isFile()) {
+                    files.add(child.getPath());
+                }
+            }
+            for (ListTask subdir : invokeAll(subdirs)) {
+                files.addAll(subdir.join());
+            }
+            return files;
+        }
+    }
+}
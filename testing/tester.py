@@ -3,7 +3,7 @@ from subprocess import \
      check_output, PIPE, STDOUT, DEVNULL, CalledProcessError, TimeoutExpired
 from os.path import abspath, basename, dirname, exists, join, splitext
 from getopt import getopt, GetoptError
-from os import chdir, environ, getcwd, mkdir, remove, access, W_OK
+from os import chdir, environ, getcwd, makedirs, mkdir, remove, access, W_OK
 from shutil import copyfile, rmtree
 from math import log
 
@@ -47,8 +47,15 @@ The instructions each have one of the following forms:
           intended to let you set up remote repositories.
    T N    Set the timeout for gitlet commands in the rest of this test to N
           seconds.
+   J OPTIONS
+          Pass OPTIONS to java when running gitlet.Main in the rest of this
+          test, e.g. -DNAME=VALUE to set a system property.  A J with no
+          OPTIONS goes back to none.
+   S N    Expect the next gitlet command to exit with status N rather
+          than 0.
    + NAME F
-          Copy the contents of src/F into a file named NAME.
+          Copy the contents of src/F into a file named NAME, creating
+          any missing directories on the way to NAME.
    - NAME
           Delete the file named NAME.
    > COMMAND OPERANDS
@@ -152,16 +159,17 @@ def doDelete(name, dir):
 def doCopy(dest, src, dir):
     try:
         doDelete(dest, dir)
+        makedirs(dirname(join(dir, dest)), exist_ok=True)
         copyfile(join(src_dir, src), join(dir, dest))
     except OSError:
         raise ValueError("file {} could not be copied to {}".format(src, dest))
 
-def doExecute(cmnd, dir, timeout, line_num):
+def doExecute(cmnd, dir, timeout, line_num, options="", status=0):
     here = getcwd()
     out = ""
     try:
         chdir(dir)
-        full_cmnd = "{} {} {}".format(JAVA_COMMAND, GITLET_CLASS, cmnd)
+        full_cmnd = "{} {} {} {}".format(JAVA_COMMAND, options, GITLET_CLASS, cmnd)
         skip_first_line = False
 
         if DEBUG:
@@ -173,12 +181,17 @@ def doExecute(cmnd, dir, timeout, line_num):
                 next_cmd = input(input_prompt)
 
             if next_cmd == "s":
-                full_cmnd = "{} {} {} {}".format(JAVA_COMMAND, JVM_OPTIONS, GITLET_CLASS, cmnd)
+                full_cmnd = "{} {} {} {} {}".format(JAVA_COMMAND, JVM_OPTIONS, options,
+                                                    GITLET_CLASS, cmnd)
                 timeout, skip_first_line = None, True
 
         out = doCommand(full_cmnd, timeout, skip_first_line)
+        if status != 0:
+            return "java gitlet.Main exited with code 0", out
         return "OK", out
     except CalledProcessError as excp:
+        if excp.args[0] == status:
+            return "OK", excp.output
         return ("java gitlet.Main exited with code {}".format(excp.args[0]),
                 excp.output)
     except TimeoutExpired:
@@ -280,6 +293,8 @@ def doTest(test):
         print(DEBUG_MSG)
 
     timeout = TIMEOUT
+    options = ""
+    status = 0
     defns = {}
 
     def do_substs(L):
@@ -334,6 +349,10 @@ def doTest(test):
                     timeout = float(Group(1))
                 except:
                     ValueError("bad time: {}".format(line))
+            elif Match(r'J\s*(.*)', line):
+                options = Group(1).strip()
+            elif Match(r'S\s*(\d+)', line):
+                status = int(Group(1))
             elif Match(r'\+\s*(\S+)\s+(\S+)', line):
                 doCopy(Group(1), Group(2), cdir)
             elif Match(r'-\s*(\S+)', line):
@@ -351,7 +370,9 @@ def doTest(test):
                         is_regexp = Group(1)
                         break
                     expected.append(do_substs(L))
-                msg, out = doExecute(cmnd, cdir, timeout, line_num)
+                msg, out = doExecute(cmnd, cdir, timeout, line_num, options,
+                                     status)
+                status = 0
                 if verbose:
                     if out:
                         print(re.sub(r'(?m)^', '- ', chop_nl(out)))